@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for sorting the drawer by label, once per scan.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LabelSortBenchmark {
+
+    /** The number of applications. */
+    @Param({"100", "1000", "10000"})
+    private int size;
+
+    /** The labels. */
+    private List<String> labels;
+
+    /**
+     * Create the catalog.
+     */
+    @Setup
+    public void setUp() {
+        labels = new SyntheticCatalog(size).getLabels();
+    }
+
+    /**
+     * Sort with collation keys, as the scan does.
+     * @return the order
+     */
+    @Benchmark
+    public int[] collationKeys() {
+        return LabelSort.order(labels, Collator.getInstance(Locale.GERMANY));
+    }
+
+    /**
+     * Sort by comparing with the collator in every step, for comparison.
+     * @return the sorted labels
+     */
+    @Benchmark
+    public List<String> collatorComparator() {
+        final Collator collator = Collator.getInstance(Locale.GERMANY);
+        final List<String> sorted = new ArrayList<>(labels);
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return collator.compare(o1, o2);
+            }
+        });
+
+        return sorted;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for ranking the dock under a stream of launches. Each operation counts one
+ * launch of a random application and ranks the dock again.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RankingBenchmark {
+
+    /** The number of slots of the dock. */
+    private static final int DOCK_SIZE = 6;
+
+    /** The number of applications. */
+    @Param({"100", "1000", "10000"})
+    private int size;
+
+    /** The usage entries. */
+    private List<UsageEntry> entries;
+    /** The source of launches. */
+    private Random random;
+
+    /**
+     * Create the catalog.
+     */
+    @Setup
+    public void setUp() {
+        entries = new ArrayList<>(new SyntheticCatalog(size).getEntries());
+        random = new Random(size);
+    }
+
+    /**
+     * Count a launch and select the best entries, as the model does.
+     * @return the dock
+     */
+    @Benchmark
+    public List<UsageEntry> top() {
+        launch();
+
+        return Ranking.top(entries, DOCK_SIZE);
+    }
+
+    /**
+     * Count a launch and sort all candidates, for comparison.
+     * @return the dock
+     */
+    @Benchmark
+    public List<UsageEntry> fullSort() {
+        launch();
+
+        final List<UsageEntry> candidates = new ArrayList<>(entries.size());
+        for (UsageEntry entry : entries) {
+            if (entry.isDockCandidate()) {
+                candidates.add(entry);
+            }
+        }
+        Collections.sort(candidates, Ranking.COMPARATOR);
+
+        return candidates.subList(0, Math.min(DOCK_SIZE, candidates.size()));
+    }
+
+    /**
+     * Count a launch of a random application.
+     */
+    private void launch() {
+        final int position = random.nextInt(entries.size());
+        final UsageEntry entry = entries.get(position);
+        entries.set(position, entry.withUsage(entry.getUsage() + 1));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic catalog of applications for benchmarks. Labels are built from a fixed set
+ * of words, with mixed case and diacritics, so that sorting sees realistic input.
+ * The same size always creates the same catalog.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+final class SyntheticCatalog {
+
+    /** Words for labels. */
+    private static final String[] WORDS = {
+            "Camera", "Calendar", "Clock", "Contacts", "Phone", "Messages", "Maps", "Music",
+            "Photos", "Gallery", "Files", "Settings", "Browser", "Mail", "Notes", "Weather",
+            "Caf\u00e9", "\u00c4pfel", "\u00dcbersetzer", "R\u00e9seau", "Se\u00f1al", "Bank",
+            "Chat", "Fitness", "News", "Radio", "Scanner", "Store", "Tasks", "Video"
+    };
+
+    /** The labels. */
+    private final List<String> labels;
+    /** The usage entries, one per application. */
+    private final List<UsageEntry> entries;
+
+    /**
+     * Create a new catalog.
+     * @param size the number of applications
+     */
+    SyntheticCatalog(final int size) {
+        final Random random = new Random(size);
+
+        labels = new ArrayList<>(size);
+        entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final String first = WORDS[random.nextInt(WORDS.length)];
+            final String second = WORDS[random.nextInt(WORDS.length)];
+            final String label = random.nextBoolean() ? first + ' ' + second : first.toLowerCase() + second;
+            labels.add(label);
+
+            // Few applications are used often, most are used rarely or never.
+            final int usage = random.nextInt(4) == 0 ? (int) Math.abs(random.nextGaussian() * 100) : 0;
+            entries.add(new UsageEntry(
+                    "com.example.app" + (i / 3),
+                    "com.example.app" + (i / 3) + ".Activity" + (i % 3),
+                    usage,
+                    random.nextInt(50) == 0,
+                    random.nextInt(100) == 0));
+        }
+    }
+
+    /**
+     *
+     * @return the labels
+     */
+    List<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     *
+     * @return the usage entries
+     */
+    List<UsageEntry> getEntries() {
+        return entries;
+    }
+}
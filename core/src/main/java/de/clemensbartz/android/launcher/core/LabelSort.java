@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.core;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorting of labels by the rules of a locale. Each label is converted to a collation
+ * key once, instead of comparing the labels with the collator in every step of the sort.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class LabelSort {
+
+    /**
+     * Hide constructor.
+     */
+    private LabelSort() {
+
+    }
+
+    /**
+     * Get the order of labels.
+     * @param labels the labels
+     * @param collator the collator, it is only used by the calling thread
+     * @return the positions of the labels in sorted order
+     */
+    public static int[] order(final List<String> labels, final Collator collator) {
+        final int size = labels.size();
+        final Key[] keys = new Key[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = new Key(collator.getCollationKey(labels.get(i)), i);
+        }
+
+        Arrays.sort(keys);
+
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = keys[i].position;
+        }
+
+        return order;
+    }
+
+    /**
+     * Collation key of a label with its position. Equal labels keep their positions.
+     */
+    private static final class Key implements Comparable<Key> {
+        /** The collation key. */
+        private final CollationKey collationKey;
+        /** The position of the label. */
+        private final int position;
+
+        /**
+         * Create a new key.
+         * @param collationKey the collation key
+         * @param position the position of the label
+         */
+        private Key(final CollationKey collationKey, final int position) {
+            this.collationKey = collationKey;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(final Key other) {
+            final int comparison = collationKey.compareTo(other.collationKey);
+            if (comparison != 0) {
+                return comparison;
+            }
+
+            return position < other.position ? -1 : (position == other.position ? 0 : 1);
+        }
+    }
+}
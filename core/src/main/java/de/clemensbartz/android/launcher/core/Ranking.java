@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ranking of the applications for the dock. Only the best entries are selected with a
+ * bounded heap, instead of sorting all usage entries.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class Ranking {
+
+    /** Order by sticky DESC, usage DESC, package name DESC, class name DESC. */
+    public static final Comparator<UsageEntry> COMPARATOR = new Comparator<UsageEntry>() {
+        @Override
+        public int compare(final UsageEntry o1, final UsageEntry o2) {
+            if (o1.isSticky() != o2.isSticky()) {
+                return o1.isSticky() ? -1 : 1;
+            }
+            if (o1.getUsage() != o2.getUsage()) {
+                return o1.getUsage() > o2.getUsage() ? -1 : 1;
+            }
+            final int packageNameComparison = o2.getPackageName().compareTo(o1.getPackageName());
+            if (packageNameComparison != 0) {
+                return packageNameComparison;
+            }
+            return o2.getClassName().compareTo(o1.getClassName());
+        }
+    };
+
+    /** The reverse order, the worst entry is at the head of the heap. */
+    private static final Comparator<UsageEntry> REVERSE = Collections.reverseOrder(COMPARATOR);
+
+    /**
+     * Hide constructor.
+     */
+    private Ranking() {
+
+    }
+
+    /**
+     * Select the best dock candidates. The order is total, so a larger limit returns
+     * the same entries first.
+     * @param entries the usage entries
+     * @param limit the maximum number of entries
+     * @return the best dock candidates in rank order
+     */
+    public static List<UsageEntry> top(final Collection<UsageEntry> entries, final int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>(0);
+        }
+
+        final PriorityQueue<UsageEntry> heap = new PriorityQueue<>(limit + 1, REVERSE);
+        for (UsageEntry entry : entries) {
+            if (!entry.isDockCandidate()) {
+                continue;
+            }
+
+            if (heap.size() < limit) {
+                heap.add(entry);
+            } else if (COMPARATOR.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+
+        final List<UsageEntry> result = new ArrayList<>(heap);
+        Collections.sort(result, COMPARATOR);
+
+        return result;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.core;
+
+/**
+ * Immutable in-memory copy of one row of the application usage table.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class UsageEntry {
+    /** The package name. */
+    private final String packageName;
+    /** The class name. */
+    private final String className;
+    /** The usage counter. */
+    private final int usage;
+    /** The disabled flag. */
+    private final boolean disabled;
+    /** The sticky flag. */
+    private final boolean sticky;
+
+    /**
+     * Create a new entry.
+     * @param packageName the package name
+     * @param className the class name
+     * @param usage the usage counter
+     * @param disabled the disabled flag
+     * @param sticky the sticky flag
+     */
+    public UsageEntry(
+            final String packageName,
+            final String className,
+            final int usage,
+            final boolean disabled,
+            final boolean sticky) {
+        this.packageName = packageName;
+        this.className = className;
+        this.usage = usage;
+        this.disabled = disabled;
+        this.sticky = sticky;
+    }
+
+    /**
+     *
+     * @return the package name
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     *
+     * @return the class name
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     *
+     * @return the usage counter
+     */
+    public int getUsage() {
+        return usage;
+    }
+
+    /**
+     *
+     * @return the disabled flag
+     */
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    /**
+     *
+     * @return the sticky flag
+     */
+    public boolean isSticky() {
+        return sticky;
+    }
+
+    /**
+     * @param newUsage the new usage counter
+     * @return a copy of this entry with another usage counter
+     */
+    public UsageEntry withUsage(final int newUsage) {
+        return new UsageEntry(packageName, className, newUsage, disabled, sticky);
+    }
+
+    /**
+     * @param newDisabled the new disabled flag
+     * @return a copy of this entry with another disabled flag
+     */
+    public UsageEntry withDisabled(final boolean newDisabled) {
+        return new UsageEntry(packageName, className, usage, newDisabled, sticky);
+    }
+
+    /**
+     * @param newSticky the new sticky flag
+     * @return a copy of this entry with another sticky flag
+     */
+    public UsageEntry withSticky(final boolean newSticky) {
+        return new UsageEntry(packageName, className, usage, disabled, newSticky);
+    }
+
+    /**
+     * Merge two entries for the same component, e. g. duplicate rows.
+     * @param other the other entry
+     * @return the merged entry
+     */
+    public UsageEntry merge(final UsageEntry other) {
+        return new UsageEntry(packageName, className,
+                Math.max(usage, other.usage),
+                disabled || other.disabled,
+                sticky || other.sticky);
+    }
+
+    /**
+     * @return <code>true</code>, if the entry qualifies for the dock
+     */
+    public boolean isDockCandidate() {
+        return !disabled && (usage > 0 || sticky);
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This package contains the platform-independent core of the launcher: ranking of the
+ * dock and sorting of labels. It does not depend on Android, so it can be measured on a
+ * plain JVM.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+package de.clemensbartz.android.launcher.core;
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.models;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.database.Cursor;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.RenamingDelegatingContext;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.clemensbartz.android.launcher.Launcher;
+import de.clemensbartz.android.launcher.db.ApplicationUsageDbHelper;
+import de.clemensbartz.android.launcher.db.ApplicationUsageModel;
+
+/**
+ * Stress test for using the home model from many threads at once. The model under test
+ * uses a separate database, which is deleted afterwards.
+ */
+public class HomeModelConcurrencyTest extends ActivityInstrumentationTestCase2<Launcher> {
+
+    /** Number of threads hammering the model. */
+    private static final int THREADS = 8;
+    /** Number of operations per thread. */
+    private static final int ITERATIONS = 250;
+    /** Timeout for the whole run in seconds. */
+    private static final int TIMEOUT = 120;
+    /** Prefix of the test database. */
+    private static final String DATABASE_PREFIX = "test.";
+
+    /** The context renaming the test database. */
+    private Context testContext;
+    /** The database helper for the test database. */
+    private ApplicationUsageDbHelper testDbHelper;
+    /** The model of the launcher before the test. */
+    private HomeModel savedModel;
+
+    public HomeModelConcurrencyTest() {
+        super(Launcher.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        testContext = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), DATABASE_PREFIX);
+        testDbHelper = new ApplicationUsageDbHelper(testContext);
+        // Start the launcher first, so that it keeps its own model.
+        getActivity();
+        savedModel = HomeModel.setInstance(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HomeModel.setInstance(savedModel);
+        super.tearDown();
+
+        testDbHelper.close();
+        testContext.deleteDatabase(testDbHelper.getDatabaseName());
+    }
+
+    public void testGetInstanceFromManyThreads() throws Exception {
+        final Launcher launcher = getActivity();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Future<?>[] futures = new Future<?>[THREADS];
+
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                futures[i] = executor.submit(new Callable<HomeModel>() {
+                    @Override
+                    public HomeModel call() throws Exception {
+                        start.await();
+                        return HomeModel.getInstance(launcher);
+                    }
+                });
+            }
+            start.countDown();
+
+            final Object first = futures[0].get(TIMEOUT, TimeUnit.SECONDS);
+            for (Future<?> future : futures) {
+                assertSame(first, future.get(TIMEOUT, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testConcurrentWritersAndReaders() throws Exception {
+        final Launcher launcher = getActivity();
+        final HomeModel model = new HomeModel(launcher, testDbHelper);
+        model.loadValues();
+
+        // Use an installed launcher activity, so that garbage collection keeps its entry.
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        final List<ResolveInfo> resolveInfos = launcher.getPackageManager().queryIntentActivities(intent, 0);
+        assertFalse("No launcher activity installed", resolveInfos.isEmpty());
+        final String packageName = resolveInfos.get(0).activityInfo.packageName;
+        final String className = resolveInfos.get(0).activityInfo.name;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        final AtomicInteger usages = new AtomicInteger();
+        final AtomicInteger stickyToggles = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                final boolean writer = i % 2 == 0;
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int j = 0; j < ITERATIONS; j++) {
+                                if (writer) {
+                                    write(model, packageName, className, j, usages, stickyToggles);
+                                } else {
+                                    read(model);
+                                }
+                            }
+                        } catch (final Throwable t) {
+                            errors.add(t);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            start.countDown();
+            assertTrue("Stress run timed out", done.await(TIMEOUT, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!errors.isEmpty()) {
+            final AssertionError error = new AssertionError(errors.size() + " thread(s) failed");
+            error.initCause(errors.peek());
+            throw error;
+        }
+
+        // No write may get lost, neither in memory nor in the database.
+        assertEquals(stickyToggles.get() % 2 == 1, model.isSticky(packageName, className));
+        assertEquals(usages.get(), readUsage(packageName, className));
+    }
+
+    /**
+     * Run one writing operation.
+     */
+    private static void write(final HomeModel model, final String packageName, final String className, final int iteration,
+                              final AtomicInteger usages, final AtomicInteger stickyToggles) {
+        switch (iteration % 3) {
+            case 0:
+                model.addUsage(packageName, className);
+                usages.incrementAndGet();
+                break;
+            case 1:
+                model.toggleSticky(packageName, className);
+                stickyToggles.incrementAndGet();
+                break;
+            default:
+                // Toggle twice, so that the application stays in the dock
+                model.toggleDisabled(packageName, className);
+                model.toggleDisabled(packageName, className);
+                break;
+        }
+    }
+
+    /**
+     * Read the usage of an application from the test database.
+     * @param packageName the package name
+     * @param className the class name
+     * @return the usage, or -1 if there is no row
+     */
+    private int readUsage(final String packageName, final String className) {
+        final Cursor c = testDbHelper.getReadableDatabase().query(
+                ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
+                new String[]{ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_USAGE},
+                ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_PACKAGE_NAME + "=? AND "
+                        + ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_CLASS_NAME + "=?",
+                new String[]{packageName, className},
+                null, null, null);
+        try {
+            return c.moveToFirst() ? c.getInt(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Iterate over a snapshot and check that it is consistent and immutable.
+     */
+    private static void read(final HomeModel model) {
+        final List<ApplicationModel> snapshot = model.getMostUsedApplications();
+        final int size = snapshot.size();
+
+        assertTrue(size <= model.getNumberOfApps());
+
+        int count = 0;
+        for (ApplicationModel applicationModel : snapshot) {
+            assertNotNull(applicationModel);
+            count++;
+        }
+        assertEquals(size, count);
+
+        try {
+            snapshot.clear();
+            fail("Snapshot must be immutable");
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -18,7 +18,6 @@
 package de.clemensbartz.android.launcher;
 
 import android.app.Activity;
-import android.appwidget.AppWidgetHost;
 import android.appwidget.AppWidgetHostView;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
@@ -30,20 +29,24 @@ import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.content.res.ColorStateList;
 import android.content.res.Configuration;
-import android.graphics.Color;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.RippleDrawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Log;
 import android.util.Pair;
+import android.util.SparseArray;
 import android.view.ContextMenu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewStub;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.FrameLayout;
 import android.widget.GridView;
@@ -51,17 +54,37 @@ import android.widget.ImageView;
 import android.widget.PopupMenu;
 import android.widget.ViewSwitcher;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import de.clemensbartz.android.launcher.adapters.DrawerListAdapter;
+import de.clemensbartz.android.launcher.core.LabelSort;
+import de.clemensbartz.android.launcher.db.ApplicationUsageDbHelper;
+import de.clemensbartz.android.launcher.models.ApplicationCatalog;
+import de.clemensbartz.android.launcher.models.ApplicationList;
 import de.clemensbartz.android.launcher.models.ApplicationModel;
+import de.clemensbartz.android.launcher.models.DockSnapshot;
 import de.clemensbartz.android.launcher.models.DockUpdateModel;
 import de.clemensbartz.android.launcher.models.HomeModel;
+import de.clemensbartz.android.launcher.services.MaintenanceJobService;
+import de.clemensbartz.android.launcher.util.IconFactory;
+import de.clemensbartz.android.launcher.util.IdleScheduler;
 import de.clemensbartz.android.launcher.util.IntentUtil;
+import de.clemensbartz.android.launcher.util.Metrics;
+import de.clemensbartz.android.launcher.views.DockView;
+import de.clemensbartz.android.launcher.widgets.LauncherAppWidgetHost;
+import de.clemensbartz.android.launcher.widgets.LauncherAppWidgetHostView;
+import de.clemensbartz.android.launcher.widgets.WidgetSnapshot;
 
 /**
  * Launcher class.
@@ -80,6 +103,38 @@ public final class Launcher extends Activity {
     /** Two third. */
     private static final double TWO_THIRD = 0.66;
 
+    /** Tag for logging. */
+    private static final String TAG = "Launcher";
+    /** Time budget in nanoseconds for deferred work per idle slice of the main thread. */
+    private static final long IDLE_BUDGET_NANOS = 4000000L;
+
+    /** Trim tier for releasing the icons of the drawer. */
+    private static final int TRIM_TIER_BACKGROUND = 0;
+    /** Trim tier for additionally releasing the bitmaps of the icon atlas. */
+    private static final int TRIM_TIER_MODERATE = 1;
+    /** Trim tier for keeping only what the dock needs. */
+    private static final int TRIM_TIER_CRITICAL = 2;
+    /** Number of trim tiers. */
+    private static final int TRIM_TIERS = 3;
+
+    /** Argument of dump for printing the metrics as tab separated lines. */
+    private static final String DUMP_MACHINE = "--machine";
+    /** Argument of dump for resetting the metrics after printing them. */
+    private static final String DUMP_RESET = "--reset";
+    /** Argument of dump for switching the statement monitor of the database on. */
+    private static final String DUMP_DB_MONITOR_ON = "--db-monitor-on";
+    /** Argument of dump for switching the statement monitor of the database off. */
+    private static final String DUMP_DB_MONITOR_OFF = "--db-monitor-off";
+    /** Timer of scans of the catalog. */
+    private static final Metrics.Timer CATALOG_LOAD = Metrics.getInstance().timer("catalog.load");
+    /** Timer of launches, from the tap until the launcher is paused. */
+    private static final Metrics.Timer APP_LAUNCH = Metrics.getInstance().timer("app.launch");
+
+    /** Name of the file for the snapshot of the dock. */
+    private static final String DOCK_SNAPSHOT_FILE = "dock.snapshot";
+    /** Name of the file for the snapshot of the widget. */
+    private static final String WIDGET_SNAPSHOT_FILE = "widget.snapshot";
+
     /** Default height in dp of the dock. */
     private static final int DOCK_HEIGHT = 60;
 
@@ -137,30 +192,59 @@ public final class Launcher extends Activity {
     private View vTopFiller;
     /** The view for holding the widget filler for bottom. */
     private View vBottomFiller;
-    /** The views for launching the most used apps. */
-    private final List<ImageView> dockImageViews = new ArrayList<>(HomeModel.NUMBER_OF_APPS);
+    /** The view for launching the most used apps and opening the drawer. */
+    private DockView dockView;
+    /** The stub for the drawer, <code>null</code> after inflation. */
+    private ViewStub drawerStub;
+    /** The view for the drawer, <code>null</code> until inflation. */
+    private GridView lvApplications;
+    /** The root view of the drawer, <code>null</code> until inflation. */
+    private View drawerView;
 
     /** The model for home. */
     private HomeModel model;
     /** The manager for widgets. */
     private AppWidgetManager appWidgetManager;
     /** The host for widgets. */
-    private AppWidgetHost appWidgetHost;
+    private LauncherAppWidgetHost appWidgetHost;
     /** The adapter for applications. */
     private DrawerListAdapter lvApplicationsAdapter;
     /** The asynchronous task for updating the list view. */
     private UpdateAsyncTask updateAsyncTask;
-    /** The list of installed applications. */
-    private final List<ApplicationModel> applicationModels = new ArrayList<>(0);
     /** The broadcast receiver for package changes. */
     private final BroadcastReceiver packageChangedBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(final Context context, final Intent intent) {
+            model.getCatalog().invalidate();
             updateApplications();
+
+            if (Intent.ACTION_PACKAGE_FULLY_REMOVED.equals(intent.getAction())) {
+                new CollectGarbageAsyncTask().execute(true);
+            }
         }
     };
     /** The temporary application model for context menus. */
     private ApplicationModel contextMenuApplicationModel;
+    /** The scheduler for deferred work while the main thread is idle. */
+    private IdleScheduler idleScheduler;
+    /** Time from the start of onCreate to the first frame in milliseconds. */
+    private long timeToFirstFrame = -1;
+    /** Time for inflating the drawer in milliseconds. */
+    private long drawerInflationTime = -1;
+    /** Flag, if the dock has changed since its snapshot was written or read. */
+    private boolean dockChanged = false;
+    /** The widget view of the last snapshot. */
+    private LauncherAppWidgetHostView capturedWidgetView;
+    /** The number of widget updates at the last snapshot. */
+    private int capturedWidgetUpdateCount;
+    /** Flag, if the activity is between onStart and onStop. */
+    private boolean started = false;
+    /** Number of trims per tier. */
+    private final int[] trimCounts = new int[TRIM_TIERS];
+    /** Bytes released per tier. */
+    private final long[] trimmedBytes = new long[TRIM_TIERS];
+    /** Start of the current launch, 0 if there is none. */
+    private long launchStart = 0;
 
     /**
      * Adjust StrictMode based on environment parameters.
@@ -180,6 +264,8 @@ public final class Launcher extends Activity {
 
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
+        final long createStart = SystemClock.elapsedRealtime();
+
         super.onCreate(savedInstanceState);
         setContentView(R.layout.launcher);
 
@@ -196,30 +282,201 @@ public final class Launcher extends Activity {
 
         ic_launcher = getDrawable(R.drawable.ic_launcher);
 
-        final GridView lvApplications = findViewById(R.id.lvApplications);
-        final ImageView ivDrawer = findViewById(R.id.ivDrawer);
+        idleScheduler = new IdleScheduler(IDLE_BUDGET_NANOS);
 
-        dockImageViews.add((ImageView) findViewById(R.id.ivDock1));
-        dockImageViews.add((ImageView) findViewById(R.id.ivDock2));
-        dockImageViews.add((ImageView) findViewById(R.id.ivDock3));
-        dockImageViews.add((ImageView) findViewById(R.id.ivDock4));
-        dockImageViews.add((ImageView) findViewById(R.id.ivDock5));
-        dockImageViews.add((ImageView) findViewById(R.id.ivDock6));
+        dockView = findViewById(R.id.dock);
+        drawerStub = findViewById(R.id.drawerStub);
 
         /*
          * Set handlers.
          */
+        dockView.setOnSlotClickListener(new DockOnSlotClickListener());
+        dockView.setOnCreateContextMenuListener(new DockContextMenuListener());
+
+        // Measure the time to the first frame.
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                timeToFirstFrame = SystemClock.elapsedRealtime() - createStart;
+
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Time to first frame: " + timeToFirstFrame + " ms");
+                }
+
+                return true;
+            }
+        });
+
+        /*
+         * Initialize data.
+         */
+        // Initialize widget handling.
         if (hasAppWidgets(this)) {
-            ivDrawer.setOnCreateContextMenuListener(new DrawerContextMenuListener());
+            appWidgetManager = AppWidgetManager.getInstance(this);
+            // The host only listens while the activity is started.
+            appWidgetHost = new LauncherAppWidgetHost(this, R.id.frWidget);
+        }
+
+        // Initialize applications adapter, it will be set when the drawer is inflated.
+        lvApplicationsAdapter = new DrawerListAdapter(this);
+
+        // Rebind to the state of a previous instance, e. g. after a configuration change.
+        final HomeModel existingModel = HomeModel.getExistingInstance();
+        if (existingModel != null) {
+            final ApplicationCatalog catalog = existingModel.getCatalog();
+            if (catalog.isValidFor(Locale.getDefault())) {
+                lvApplicationsAdapter.setApplications(catalog.getApplications());
+            }
+
+            final List<ApplicationModel> mostUsedApplications = existingModel.getMostUsedApplications();
+            for (int i = 0, size = Math.min(dockView.getSlotCount(), mostUsedApplications.size()); i < size; i++) {
+                updateDock(i, mostUsedApplications.get(i));
+            }
+        } else {
+            restoreDockSnapshot();
+        }
+
+        registerGauges();
+    }
+
+    /**
+     * Register the gauges of this activity with the metrics.
+     */
+    private void registerGauges() {
+        final Metrics metrics = Metrics.getInstance();
+
+        // Activity.dump runs on the main thread, so the gauges may read views and adapters.
+        metrics.setGauge(this, "startup.timeToFirstFrameMs", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return timeToFirstFrame;
+            }
+        });
+        metrics.setGauge(this, "drawer.inflationMs", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return drawerInflationTime;
+            }
+        });
+
+        idleScheduler.registerGauges(this);
+        lvApplicationsAdapter.registerGauges(this);
+        if (appWidgetHost != null) {
+            appWidgetHost.registerGauges(this);
+        }
+        MaintenanceJobService.registerGauges(this);
+
+        for (int i = 0; i < TRIM_TIERS; i++) {
+            final int tier = i;
+            metrics.setGauge(this, "trim." + tier + ".count", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return trimCounts[tier];
+                }
+            });
+            metrics.setGauge(this, "trim." + tier + ".bytes", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return trimmedBytes[tier];
+                }
+            });
+        }
+    }
+
+    @Override
+    public void dump(final String prefix, final FileDescriptor fd, final PrintWriter writer, final String[] args) {
+        boolean machine = false;
+        boolean reset = false;
+
+        if (args != null) {
+            for (String arg : args) {
+                switch (arg) {
+                    case DUMP_MACHINE:
+                        machine = true;
+                        break;
+                    case DUMP_RESET:
+                        reset = true;
+                        break;
+                    case DUMP_DB_MONITOR_ON:
+                        ApplicationUsageDbHelper.getInstance(this).getMonitor().setEnabled(true);
+                        break;
+                    case DUMP_DB_MONITOR_OFF:
+                        ApplicationUsageDbHelper.getInstance(this).getMonitor().setEnabled(false);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        // The machine-readable format only contains the metrics.
+        if (!machine) {
+            super.dump(prefix, fd, writer, args);
         }
 
-        ivDrawer.setOnClickListener(new DrawerOnClickListener());
+        Metrics.getInstance().dump(writer, prefix, machine);
 
-        for (int i = 0, dockImageViewsSize = dockImageViews.size(); i < dockImageViewsSize; i++) {
-            final ImageView imageView = dockImageViews.get(i);
-            imageView.setOnCreateContextMenuListener(new DockContextMenuListener());
+        // Collectors read and reset in one go, so that no values get lost in between.
+        if (reset) {
+            Metrics.getInstance().reset();
         }
+    }
+
+    /**
+     * Paint the dock from its snapshot on a cold start. The file is small and read on
+     * the main thread on purpose, so that the first frame shows the dock. The dock is
+     * reconciled with the model once it has been loaded.
+     */
+    private void restoreDockSnapshot() {
+        final StrictMode.ThreadPolicy threadPolicy = StrictMode.allowThreadDiskReads();
+        final DockSnapshot snapshot;
+        try {
+            snapshot = DockSnapshot.read(new File(getCacheDir(), DOCK_SNAPSHOT_FILE), getResources(),
+                    getResources().getDimensionPixelSize(R.dimen.icon_size));
+        } finally {
+            StrictMode.setThreadPolicy(threadPolicy);
+        }
+
+        if (snapshot == null) {
+            return;
+        }
+
+        final SparseArray<ApplicationModel> applications = snapshot.getApplications();
+        for (int i = 0, size = applications.size(); i < size; i++) {
+            if (applications.keyAt(i) < dockView.getSlotCount()) {
+                updateDock(applications.keyAt(i), applications.valueAt(i));
+            }
+        }
+        dockChanged = false;
+    }
+
+    /**
+     * Keep the drawer laid out while home is shown. An invisible view is measured
+     * and laid out, but not drawn and not touchable, so the grid binds its first page
+     * in the background and opening the drawer does not have to inflate any cells.
+     */
+    private void keepDrawerWarm() {
+        if (drawerView != null && vsLauncher.getDisplayedChild() == HOME_ID) {
+            drawerView.setVisibility(View.INVISIBLE);
+        }
+    }
+
+    /**
+     * Inflate the drawer, if it has not been inflated yet.
+     */
+    private void inflateDrawer() {
+        if (lvApplications != null) {
+            return;
+        }
+
+        final long inflateStart = SystemClock.elapsedRealtime();
 
+        final View drawer = drawerStub.inflate();
+        drawerStub = null;
+
+        lvApplications = drawer.findViewById(R.id.lvApplications);
         lvApplications.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(
@@ -228,30 +485,22 @@ public final class Launcher extends Activity {
                     final int i,
                     final long l) {
 
-                openApp(applicationModels.get(i));
+                openApp(lvApplicationsAdapter.getItem(i));
             }
         });
         registerForContextMenu(lvApplications);
         lvApplications.setOnCreateContextMenuListener(new ApplicationsContextMenuListener());
+        lvApplications.setAdapter(lvApplicationsAdapter);
+        lvApplications.setOnScrollListener(lvApplicationsAdapter);
 
-        /*
-         * Initialize data.
-         */
-        // Animate the image of the drawer button.
-        final RippleDrawable rd = new RippleDrawable(ColorStateList.valueOf(Color.GRAY), ivDrawer.getDrawable(), null);
-        ivDrawer.setImageDrawable(rd);
-
-        // Initialize widget handling.
-        if (hasAppWidgets(this)) {
-            appWidgetManager = AppWidgetManager.getInstance(this);
-            appWidgetHost = new AppWidgetHost(this, R.id.frWidget);
-            appWidgetHost.startListening();
-        }
+        drawerView = drawer;
+        keepDrawerWarm();
 
-        // Initialize applications adapter and set it.
-        lvApplicationsAdapter = new DrawerListAdapter(this, applicationModels);
+        drawerInflationTime = SystemClock.elapsedRealtime() - inflateStart;
 
-        lvApplications.setAdapter(lvApplicationsAdapter);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Drawer inflated in " + drawerInflationTime + " ms");
+        }
     }
 
     @Override
@@ -259,6 +508,8 @@ public final class Launcher extends Activity {
         super.onStart();
 
         model = HomeModel.getInstance(this);
+        model.setNumberOfApps(dockView.getSlotCount());
+        lvApplicationsAdapter.setIconFactory(model.getIconFactory());
 
         // Listen for changes
         final IntentFilter filter = new IntentFilter();
@@ -273,9 +524,182 @@ public final class Launcher extends Activity {
 
         registerReceiver(packageChangedBroadcastReceiver, filter);
 
+        // Receive the latest views of the widget once
+        if (appWidgetHost != null) {
+            appWidgetHost.startListening();
+        }
+
+        started = true;
+
         // Go
         new LoadModelAsyncTask().execute();
-        updateApplications();
+        if (!model.getCatalog().isValidFor(Locale.getDefault())) {
+            updateApplications();
+        }
+
+        // Deferred work
+        idleScheduler.schedule("inflateDrawer", new Runnable() {
+            @Override
+            public void run() {
+                inflateDrawer();
+            }
+        });
+        idleScheduler.schedule("collectGarbage", new Runnable() {
+            @Override
+            public void run() {
+                new CollectGarbageAsyncTask().execute(false);
+            }
+        });
+        idleScheduler.schedule("scheduleMaintenance", new Runnable() {
+            @Override
+            public void run() {
+                MaintenanceJobService.schedule(Launcher.this);
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        started = false;
+        idleScheduler.cancelAll();
+
+        if (dockChanged && model != null) {
+            final SparseArray<ApplicationModel> applications = new SparseArray<>(dockView.getSlotCount());
+            for (int i = 0, size = dockView.getSlotCount(); i < size; i++) {
+                if (dockView.getSlotTag(i) instanceof ApplicationModel) {
+                    applications.put(i, (ApplicationModel) dockView.getSlotTag(i));
+                }
+            }
+            // Render on the main thread, the icons are shared with the views.
+            new SaveDockSnapshotAsyncTask().execute(
+                    DockSnapshot.capture(applications, model.getIconFactory().getIconSize()));
+            dockChanged = false;
+        }
+
+        captureWidgetSnapshot();
+
+        // Widget updates are not needed while home is not visible
+        if (appWidgetHost != null) {
+            appWidgetHost.stopListening();
+
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, appWidgetHost.toString());
+            }
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, idleScheduler.toString());
+            Log.d(TAG, lvApplicationsAdapter.getIconLoaderStatus());
+            Log.d(TAG, ApplicationUsageDbHelper.getInstance(this).getMonitor().toString());
+        }
+
+        super.onStop();
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+
+        final int tier;
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            tier = TRIM_TIER_CRITICAL;
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            tier = TRIM_TIER_MODERATE;
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            tier = TRIM_TIER_BACKGROUND;
+        } else {
+            // UI_HIDDEN is sent on every launch and RUNNING_* while home is in use,
+            // dropping icons then would only cause a rescan on the way back.
+            return;
+        }
+
+        trimMemory(tier);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        trimMemory(TRIM_TIER_CRITICAL);
+    }
+
+    /**
+     * Release memory up to a tier. Every tier includes the lower ones:
+     * the background tier releases the icons of the drawer into the atlas, the moderate
+     * tier drops the atlas pages without icons, and the critical tier keeps only
+     * the dock. Released data is rebuilt from the package manager and the database
+     * on the next start, or when the drawer is opened.
+     * <p/>
+     * While the activity is visible, only the drawer icons are released, and only if
+     * the drawer is not shown. Icons are kept while a scan is running, as the scan may
+     * pick them up again. The slots of released icons are reclaimed, and empty pages
+     * dropped, once the drawer has been rebound.
+     *
+     * @param requestedTier the tier
+     */
+    private void trimMemory(final int requestedTier) {
+        if (model == null) {
+            return;
+        }
+
+        final int tier;
+        if (started) {
+            if (vsLauncher.getDisplayedChild() != HOME_ID) {
+                return;
+            }
+            tier = TRIM_TIER_BACKGROUND;
+        } else {
+            tier = requestedTier;
+        }
+
+        final List<ApplicationModel> dockModels = model.getMostUsedApplications();
+        final ApplicationCatalog catalog = model.getCatalog();
+
+        final IconFactory iconFactory = model.getIconFactory();
+        final long iconBytes = iconFactory.getAtlas().getBytes();
+        final long freeIconBytes = iconFactory.getAtlas().getFreeBytes();
+
+        if (updateAsyncTask == null || updateAsyncTask.getStatus() != AsyncTask.Status.RUNNING) {
+            final List<Drawable> releasedIcons = catalog.releaseIcons(dockModels);
+            for (int i = 0, size = releasedIcons.size(); i < size; i++) {
+                iconFactory.recycle(releasedIcons.get(i));
+            }
+        }
+
+        long metadataBytes = 0;
+        if (tier >= TRIM_TIER_CRITICAL) {
+            metadataBytes += catalog.retainOnly(dockModels);
+            metadataBytes += model.releaseUsage();
+        }
+        final long releasedMetadataBytes = metadataBytes;
+
+        // Rebind the drawer to what is left in the catalog
+        lvApplicationsAdapter.setApplications(catalog.getApplications());
+
+        lvApplicationsAdapter.runAfterApply(new Runnable() {
+            @Override
+            public void run() {
+                iconFactory.reclaim();
+
+                // Reclaimed slots stay in the atlas for the next scan, unless the pages are dropped.
+                long bytes;
+                if (tier >= TRIM_TIER_MODERATE) {
+                    iconFactory.trim();
+                    bytes = iconBytes - iconFactory.getAtlas().getBytes();
+                } else {
+                    bytes = iconFactory.getAtlas().getFreeBytes() - freeIconBytes;
+                }
+                bytes += releasedMetadataBytes;
+
+                trimCounts[tier]++;
+                trimmedBytes[tier] += bytes;
+
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Trimmed memory at tier " + tier + ": " + bytes + " bytes, "
+                            + trimmedBytes[tier] + " bytes in " + trimCounts[tier] + " trims");
+                }
+            }
+        });
     }
 
     @Override
@@ -283,6 +707,17 @@ public final class Launcher extends Activity {
         switchTo(HOME_ID);
     }
 
+    @Override
+    protected void onPause() {
+        // The launched application is about to be shown
+        if (launchStart != 0) {
+            APP_LAUNCH.recordSince(launchStart);
+            launchStart = 0;
+        }
+
+        super.onPause();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -408,9 +843,18 @@ public final class Launcher extends Activity {
 
     @Override
     protected void onDestroy() {
-        appWidgetHost.stopListening();
+        if (appWidgetHost != null) {
+            appWidgetHost.stopListening();
+        }
+        lvApplicationsAdapter.cancelIconLoads();
+        Metrics.getInstance().removeGauges(this);
         //model.close();
 
+        // Only a recreated instance may reuse the catalog, package changes are missed in between otherwise.
+        if (model != null && !isChangingConfigurations()) {
+            model.getCatalog().invalidate();
+        }
+
         // Prevent memory leaks for receiver
         try {
             unregisterReceiver(packageChangedBroadcastReceiver);
@@ -426,6 +870,8 @@ public final class Launcher extends Activity {
      * @param applicationModel the model
      */
     private void openApp(final ApplicationModel applicationModel) {
+        launchStart = Metrics.Timer.start();
+
         new LoadMostUsedAppsAsyncTask().execute(applicationModel);
 
         final ComponentName component = new ComponentName(applicationModel.packageName, applicationModel.className);
@@ -444,12 +890,20 @@ public final class Launcher extends Activity {
         switch (vsLauncher.getDisplayedChild()) {
             case HOME_ID:
                 if (id == DRAWER_ID) {
+                    setWidgetHidden(true);
+                    inflateDrawer();
+                    // Reload what has been trimmed while the activity was visible
+                    if (model != null && !model.getCatalog().isValidFor(Locale.getDefault())) {
+                        updateApplications();
+                    }
                     vsLauncher.showNext();
                 }
                 break;
             case DRAWER_ID:
                 if (id == HOME_ID) {
                     vsLauncher.showPrevious();
+                    keepDrawerWarm();
+                    setWidgetHidden(false);
                 }
                 break;
             default:
@@ -457,6 +911,16 @@ public final class Launcher extends Activity {
         }
     }
 
+    /**
+     * Defer updates of the widget while the drawer covers it.
+     * @param hidden <code>true</code>, if the widget is hidden
+     */
+    private void setWidgetHidden(final boolean hidden) {
+        if (frWidget.getChildCount() > 0 && frWidget.getChildAt(0) instanceof LauncherAppWidgetHostView) {
+            ((LauncherAppWidgetHostView) frWidget.getChildAt(0)).setHidden(hidden);
+        }
+    }
+
     /**
      * @param context the context to check for
      * @return returns <code>true</code>, if <code>PackageManager.FEATURE_APP_WIDGETS</code>
@@ -560,6 +1024,16 @@ public final class Launcher extends Activity {
      * @param appWidgetId the widget id
      */
     private void addHostView(final int appWidgetId) {
+        addHostView(appWidgetId, null);
+    }
+
+    /**
+     * Add a host view to the frame layout for a widget id. Until the provider delivers
+     * its views, the snapshot is shown instead of the host view.
+     * @param appWidgetId the widget id
+     * @param snapshot the snapshot of the widget, can be <code>null</code>
+     */
+    private void addHostView(final int appWidgetId, final Bitmap snapshot) {
         frWidget.removeAllViews();
 
         if (hasAppWidgets(this)) {
@@ -569,12 +1043,73 @@ public final class Launcher extends Activity {
                 hostView.setAppWidget(appWidgetId, appWidgetInfo);
 
                 frWidget.addView(hostView);
+
+                if (hostView instanceof LauncherAppWidgetHostView) {
+                    ((LauncherAppWidgetHostView) hostView).setHidden(vsLauncher.getDisplayedChild() != HOME_ID);
+                }
+
+                if (snapshot != null
+                        && hostView instanceof LauncherAppWidgetHostView
+                        && !((LauncherAppWidgetHostView) hostView).hasUpdate()) {
+                    showWidgetSnapshot((LauncherAppWidgetHostView) hostView, snapshot);
+                }
             } else {
                 model.setAppWidgetId(-1);
             }
         }
     }
 
+    /**
+     * Show a snapshot over a host view, until the provider delivers its first views.
+     * @param hostView the host view
+     * @param snapshot the snapshot
+     */
+    private void showWidgetSnapshot(final LauncherAppWidgetHostView hostView, final Bitmap snapshot) {
+        final ImageView snapshotView = new ImageView(this);
+        snapshotView.setImageBitmap(snapshot);
+        snapshotView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        frWidget.addView(snapshotView, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        // Hide the loading view of the host view behind the snapshot
+        hostView.setVisibility(View.INVISIBLE);
+        hostView.setOnFirstUpdateListener(new LauncherAppWidgetHostView.OnFirstUpdateListener() {
+            @Override
+            public void onFirstUpdate(final LauncherAppWidgetHostView view) {
+                view.setVisibility(View.VISIBLE);
+                frWidget.removeView(snapshotView);
+            }
+        });
+    }
+
+    /**
+     * Capture a snapshot of the widget for the next cold start, if it has changed
+     * since the last snapshot.
+     */
+    private void captureWidgetSnapshot() {
+        if (frWidget.getChildCount() == 0 || !(frWidget.getChildAt(0) instanceof LauncherAppWidgetHostView)) {
+            return;
+        }
+
+        final LauncherAppWidgetHostView hostView = (LauncherAppWidgetHostView) frWidget.getChildAt(0);
+        if (!hostView.hasUpdate()
+                || hostView.getWidth() == 0
+                || hostView.getHeight() == 0
+                || (hostView == capturedWidgetView && hostView.getUpdateCount() == capturedWidgetUpdateCount)) {
+            return;
+        }
+
+        final Bitmap snapshot = Bitmap.createBitmap(hostView.getWidth(), hostView.getHeight(), Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(snapshot);
+        hostView.draw(canvas);
+        canvas.setBitmap(null);
+
+        capturedWidgetView = hostView;
+        capturedWidgetUpdateCount = hostView.getUpdateCount();
+
+        new SaveWidgetSnapshotAsyncTask(hostView.getAppWidgetId()).execute(snapshot);
+    }
+
     /**
      * Update applications.
      */
@@ -588,61 +1123,102 @@ public final class Launcher extends Activity {
     }
 
     /**
-     * Update dock.
+     * Release the icons of replaced models. This waits until the drawer has been rebound,
+     * and then for the next idle slice. Icons still in use are skipped, and nothing is
+     * released while a scan is running.
+     * @param replacedApplications the replaced applications
+     * @param currentApplications the applications replacing them
      */
-    private void updateDock() {
-        new LoadMostUsedAppsAsyncTask().execute();
+    private void recycleIcons(final ApplicationList replacedApplications, final ApplicationList currentApplications) {
+        if (replacedApplications.size() == 0) {
+            return;
+        }
+
+        final Runnable recycleJob = new Runnable() {
+            @Override
+            public void run() {
+                // A running scan may pick up shared icons again.
+                if (updateAsyncTask != null && updateAsyncTask.getStatus() == AsyncTask.Status.RUNNING) {
+                    return;
+                }
+
+                final Set<Drawable> usedIcons = Collections.newSetFromMap(new IdentityHashMap<Drawable, Boolean>());
+                for (int i = 0, size = currentApplications.size(); i < size; i++) {
+                    usedIcons.add(currentApplications.getIcon(i));
+                }
+                final List<ApplicationModel> dockModels = model.getMostUsedApplications();
+                for (int i = 0, size = dockModels.size(); i < size; i++) {
+                    usedIcons.add(dockModels.get(i).icon);
+                }
+                for (int i = 0, size = dockView.getSlotCount(); i < size; i++) {
+                    final Object tag = dockView.getSlotTag(i);
+                    if (tag instanceof ApplicationModel) {
+                        usedIcons.add(((ApplicationModel) tag).icon);
+                    }
+                }
+
+                final IconFactory iconFactory = model.getIconFactory();
+                for (int i = 0, size = replacedApplications.size(); i < size; i++) {
+                    final Drawable icon = replacedApplications.getIcon(i);
+                    if (icon != null && usedIcons.add(icon)) {
+                        iconFactory.recycle(icon);
+                    }
+                }
+
+                // Changes applied since may still show icons released by a trim.
+                lvApplicationsAdapter.runAfterApply(new Runnable() {
+                    @Override
+                    public void run() {
+                        iconFactory.reclaim();
+                    }
+                });
+            }
+        };
+
+        lvApplicationsAdapter.runAfterApply(new Runnable() {
+            @Override
+            public void run() {
+                idleScheduler.schedule("recycleIcons", recycleJob);
+            }
+        });
     }
 
     /**
-     * Handle click on dock image.
-     * @param imageView the image view that was clicked
+     * Update dock.
      */
-    private void onDockClick(final ImageView imageView) {
-        if (imageView.getTag() instanceof ApplicationModel) {
-            openApp((ApplicationModel) imageView.getTag());
-        }
+    private void updateDock() {
+        new LoadMostUsedAppsAsyncTask().execute();
     }
 
     /**
-     * Update the dock image to feature the application model.
-     * @param imageView the view
+     * Update the dock slot to feature the application model.
+     * @param slot the slot in the dock
      * @param applicationModel the model, can be <code>null</code>
      */
-    private void updateDock(final ImageView imageView, final ApplicationModel applicationModel) {
+    private void updateDock(final int slot, final ApplicationModel applicationModel) {
         if (applicationModel == null) {
-            if (imageView.getTag() != null) {
-                imageView.setTag(null);
-                imageView.setImageDrawable(ic_launcher);
-                imageView.setOnClickListener(null);
-                imageView.setContentDescription(null);
+            if (dockView.getSlotTag(slot) != null) {
+                dockView.clearSlot(slot);
+                dockChanged = true;
             }
         } else {
-            final Object tag = imageView.getTag();
+            final Object tag = dockView.getSlotTag(slot);
 
             if (tag instanceof ApplicationModel) {
                 final ApplicationModel tagModel = (ApplicationModel) tag;
 
+                // Also compare the icon, so that icons from the snapshot are replaced
                 if (tagModel.packageName.equals(applicationModel.packageName)
                         && tagModel.className.equals(applicationModel.className)
                         && tagModel.label.equals(applicationModel.label)
+                        && tagModel.icon == applicationModel.icon
                 ) {
                     return;
                 }
             }
 
-            final RippleDrawable rd = new RippleDrawable(ColorStateList.valueOf(Color.GRAY), applicationModel.icon, null);
-            imageView.setImageDrawable(rd);
-            imageView.setTag(applicationModel);
-            imageView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(final View view) {
-                    if (view instanceof ImageView) {
-                        onDockClick((ImageView) view);
-                    }
-                }
-            });
-            imageView.setContentDescription(applicationModel.label);
+            dockView.setSlot(slot, applicationModel.icon, applicationModel.label, applicationModel);
+            dockChanged = true;
         }
     }
 
@@ -653,7 +1229,7 @@ public final class Launcher extends Activity {
         @Override
         public void onCreateContextMenu(final ContextMenu contextMenu, final View view, final ContextMenu.ContextMenuInfo contextMenuInfo) {
             final AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo) contextMenuInfo;
-            final ApplicationModel applicationModel = applicationModels.get(info.position);
+            final ApplicationModel applicationModel = lvApplicationsAdapter.getItem(info.position);
             contextMenuApplicationModel = applicationModel;
 
             contextMenu.setHeaderTitle(applicationModel.label);
@@ -662,13 +1238,14 @@ public final class Launcher extends Activity {
 
             contextMenu.add(0, ITEM_RESET, 0, R.string.resetcounter);
 
+            // The flags of the drawer are from the last scan, the usage table has the current ones.
             final MenuItem toggleDisabledItem = contextMenu.add(0, ITEM_TOGGLE_DISABLED, 0, R.string.showInDock);
             toggleDisabledItem.setCheckable(true);
-            toggleDisabledItem.setChecked(!applicationModel.disabled);
+            toggleDisabledItem.setChecked(!model.isDisabled(applicationModel.packageName, applicationModel.className));
 
             final MenuItem toggleStickyItem = contextMenu.add(0, ITEM_TOGGLE_STICKY, 0, R.string.showInDockSticky);
             toggleStickyItem.setCheckable(true);
-            toggleStickyItem.setChecked(applicationModel.sticky);
+            toggleStickyItem.setChecked(model.isSticky(applicationModel.packageName, applicationModel.className));
 
             // Check for system apps
             try {
@@ -684,40 +1261,41 @@ public final class Launcher extends Activity {
     }
 
     /**
-     * Listener for dock icon context menu.
+     * Listener for dock icon and drawer icon context menu.
      */
     private class DockContextMenuListener implements View.OnCreateContextMenuListener {
 
         @Override
         public void onCreateContextMenu(final ContextMenu contextMenu, final View view, final ContextMenu.ContextMenuInfo contextMenuInfo) {
-            if (view instanceof ImageView) {
-                final ImageView contextImageView = (ImageView) view;
+            if (contextMenuInfo instanceof DockView.DockContextMenuInfo) {
+                final int slot = ((DockView.DockContextMenuInfo) contextMenuInfo).getSlot();
 
-                if (contextImageView.getTag() instanceof ApplicationModel) {
-                    final ApplicationModel model = (ApplicationModel) contextImageView.getTag();
-                    contextMenuApplicationModel = model;
+                if (slot == DockView.DRAWER_SLOT) {
+                    if (hasAppWidgets(Launcher.this)) {
+                        onCreateDrawerContextMenu(contextMenu);
+                    }
+                } else if (dockView.getSlotTag(slot) instanceof ApplicationModel) {
+                    final ApplicationModel applicationModel = (ApplicationModel) dockView.getSlotTag(slot);
+                    contextMenuApplicationModel = applicationModel;
 
                     contextMenu.add(0, ITEM_RESET, 0, R.string.resetcounter);
 
                     final MenuItem toggleDisabledItem = contextMenu.add(0, ITEM_TOGGLE_DISABLED, 0, R.string.showInDock);
                     toggleDisabledItem.setCheckable(true);
-                    toggleDisabledItem.setChecked(!model.disabled);
+                    toggleDisabledItem.setChecked(!model.isDisabled(applicationModel.packageName, applicationModel.className));
 
                     final MenuItem toggleStickyItem = contextMenu.add(0, ITEM_TOGGLE_STICKY, 0, R.string.showInDockSticky);
                     toggleStickyItem.setCheckable(true);
-                    toggleStickyItem.setChecked(model.sticky);
+                    toggleStickyItem.setChecked(model.isSticky(applicationModel.packageName, applicationModel.className));
                 }
             }
         }
-    }
 
-    /**
-     * Listener for drawer icon context menu.
-     */
-    private class DrawerContextMenuListener implements View.OnCreateContextMenuListener {
-
-        @Override
-        public void onCreateContextMenu(final ContextMenu contextMenu, final View view, final ContextMenu.ContextMenuInfo contextMenuInfo) {
+        /**
+         * Fill the context menu for the drawer icon.
+         * @param contextMenu the context menu
+         */
+        private void onCreateDrawerContextMenu(final ContextMenu contextMenu) {
             contextMenu.add(0, ITEM_CHOOSE_WIDGET, 0, R.string.choose_widget);
             if (model.getAppWidgetId() != -1) {
                 contextMenu.add(0, ITEM_LAYOUT_WIDGET, 0, R.string.adjustWidgetLayout);
@@ -727,13 +1305,17 @@ public final class Launcher extends Activity {
     }
 
     /**
-     * Lister for drawer icon.
+     * Listener for dock icons and the drawer icon.
      */
-    private class DrawerOnClickListener implements View.OnClickListener {
+    private class DockOnSlotClickListener implements DockView.OnSlotClickListener {
 
         @Override
-        public void onClick(final View view) {
-            switchTo(DRAWER_ID);
+        public void onSlotClick(final DockView view, final int slot) {
+            if (slot == DockView.DRAWER_SLOT) {
+                switchTo(DRAWER_ID);
+            } else if (view.getSlotTag(slot) instanceof ApplicationModel) {
+                openApp((ApplicationModel) view.getSlotTag(slot));
+            }
         }
     }
 
@@ -812,11 +1394,11 @@ public final class Launcher extends Activity {
 
             final List<ApplicationModel> mostUsedApplications = model.getMostUsedApplications();
 
-            for (int i = 0; i < dockImageViews.size(); i++) {
+            for (int i = 0, numberOfApps = model.getNumberOfApps(); i < numberOfApps; i++) {
                 if (i >= mostUsedApplications.size()) {
-                    publishProgress(new DockUpdateModel(dockImageViews.get(i), null));
+                    publishProgress(new DockUpdateModel(i, null));
                 } else {
-                    publishProgress(new DockUpdateModel(dockImageViews.get(i), mostUsedApplications.get(i)));
+                    publishProgress(new DockUpdateModel(i, mostUsedApplications.get(i)));
                 }
             }
 
@@ -826,7 +1408,74 @@ public final class Launcher extends Activity {
         @Override
         protected void onProgressUpdate(final DockUpdateModel... values) {
             for (DockUpdateModel dockUpdateModel : values) {
-                updateDock(dockUpdateModel.getImageView(), dockUpdateModel.getApplicationModel());
+                updateDock(dockUpdateModel.getSlot(), dockUpdateModel.getApplicationModel());
+            }
+        }
+    }
+
+    /**
+     * Async task for writing the snapshot of the dock.
+     */
+    private class SaveDockSnapshotAsyncTask extends AsyncTask<DockSnapshot, Integer, Integer> {
+        /** The file for the snapshot. */
+        private final File file = new File(getCacheDir(), DOCK_SNAPSHOT_FILE);
+
+        @Override
+        protected Integer doInBackground(final DockSnapshot... snapshots) {
+            try {
+                snapshots[0].write(file);
+            } catch (final IOException e) {
+                Log.w(TAG, "Could not write the snapshot of the dock", e);
+            }
+
+            return 0;
+        }
+    }
+
+    /**
+     * Async task for writing the snapshot of the widget.
+     */
+    private class SaveWidgetSnapshotAsyncTask extends AsyncTask<Bitmap, Integer, Integer> {
+        /** The id of the widget. */
+        private final int appWidgetId;
+
+        /**
+         * Create a new task.
+         * @param appWidgetId the id of the widget
+         */
+        SaveWidgetSnapshotAsyncTask(final int appWidgetId) {
+            this.appWidgetId = appWidgetId;
+        }
+
+        @Override
+        protected Integer doInBackground(final Bitmap... snapshots) {
+            try {
+                WidgetSnapshot.write(new File(getCacheDir(), WIDGET_SNAPSHOT_FILE), appWidgetId, snapshots[0]);
+            } catch (final IOException e) {
+                Log.w(TAG, "Could not write the snapshot of the widget", e);
+            }
+
+            return 0;
+        }
+    }
+
+    /**
+     * Async task for deleting usage entries of removed applications.
+     */
+    private class CollectGarbageAsyncTask extends AsyncTask<Boolean, Integer, Integer> {
+        @Override
+        protected Integer doInBackground(final Boolean... force) {
+            if ((force.length == 0 || !force[0]) && !model.isGarbageCollectionDue()) {
+                return 0;
+            }
+
+            return model.collectGarbage();
+        }
+
+        @Override
+        protected void onPostExecute(final Integer result) {
+            if (result > 0) {
+                updateDock();
             }
         }
     }
@@ -835,18 +1484,34 @@ public final class Launcher extends Activity {
      * Async task for loading the model on start.
      */
     private class LoadModelAsyncTask extends AsyncTask<Integer, Integer, Pair<Integer, Integer>> {
+        /** Flag, if the snapshot of the widget should be loaded. */
+        private boolean loadWidgetSnapshot;
+        /** The snapshot of the widget, can be <code>null</code>. */
+        private Bitmap widgetSnapshot;
+
+        @Override
+        protected void onPreExecute() {
+            // Only a cold start has no widget yet
+            loadWidgetSnapshot = frWidget.getChildCount() == 0;
+        }
+
         @Override
         protected Pair<Integer, Integer> doInBackground(final Integer... params) {
             model.loadValues();
 
-            return new Pair<>(model.getAppWidgetId(), model.getAppWidgetLayout());
+            final int appWidgetId = model.getAppWidgetId();
+            if (loadWidgetSnapshot && appWidgetId > -1) {
+                widgetSnapshot = WidgetSnapshot.read(new File(getCacheDir(), WIDGET_SNAPSHOT_FILE), appWidgetId);
+            }
+
+            return new Pair<>(appWidgetId, model.getAppWidgetLayout());
         }
 
         @Override
         protected void onPostExecute(final Pair<Integer, Integer> result) {
             // Show last selected widget.
             if (result.first > -1) {
-                addHostView(result.first);
+                addHostView(result.first, widgetSnapshot);
             }
 
             // Layout widget
@@ -857,19 +1522,28 @@ public final class Launcher extends Activity {
     /**
      * Async task to update applications of the list view.
      */
-    private class UpdateAsyncTask extends AsyncTask<Integer, Integer, Integer> {
+    private class UpdateAsyncTask extends AsyncTask<Integer, Integer, ApplicationList> {
 
         /** Number of apps after which a refresh should be triggered. */
         private static final int REFRESH_NUMBER = 5;
 
+        /** The locale the labels are loaded in. */
+        private final Locale locale = Locale.getDefault();
+        /** The factory for icons. */
+        private final IconFactory iconFactory = model.getIconFactory();
+
         @Override
-        protected Integer doInBackground(final Integer... integers) {
+        protected ApplicationList doInBackground(final Integer... integers) {
+            final long start = Metrics.Timer.start();
+
             final Intent intent = new Intent();
             intent.setAction(Intent.ACTION_MAIN);
             intent.addCategory(Intent.CATEGORY_LAUNCHER);
 
             final PackageManager pm = getPackageManager();
             final List<ResolveInfo> resolveInfoList = pm.queryIntentActivities(intent, 0);
+            final List<ApplicationModel> scannedModels = new ArrayList<>(resolveInfoList.size());
+            final Map<ApplicationModel, ResolveInfo> resolveInfos = new IdentityHashMap<>(resolveInfoList.size());
 
             for (int i1 = 0, resolveInfoListSize = resolveInfoList.size(); i1 < resolveInfoListSize; i1++) {
                 final ResolveInfo resolveInfo = resolveInfoList.get(i1);
@@ -893,41 +1567,72 @@ public final class Launcher extends Activity {
                     applicationModel.label = "";
                 }
 
-                applicationModel.icon = resolveInfo.loadIcon(pm);
+                scannedModels.add(applicationModel);
+                resolveInfos.put(applicationModel, resolveInfo);
+            }
+
+            // Sort, each label is converted to a collation key once
+            final List<String> labels = new ArrayList<>(scannedModels.size());
+            for (int i = 0, size = scannedModels.size(); i < size; i++) {
+                labels.add(scannedModels.get(i).label);
+            }
+            final int[] order = LabelSort.order(labels, Collator.getInstance(locale));
+            final List<ApplicationModel> sortedModels = new ArrayList<>(order.length);
+            for (int position : order) {
+                sortedModels.add(scannedModels.get(position));
+            }
+
+            // Load icons in drawer order, so that neighbouring cells share an atlas page
+            for (int i = 0, size = sortedModels.size(); i < size; i++) {
+                final ApplicationModel applicationModel = sortedModels.get(i);
+                final ResolveInfo resolveInfo = resolveInfos.get(applicationModel);
 
-                // Check for when icon can become null (e. g. on Huawei Nexus 6p angler).
+                // Icons are shared by resource, so most rescans do not load any icon.
+                final String iconKey = IconFactory.getIconKey(resolveInfo);
+                applicationModel.icon = iconFactory.getIcon(iconKey);
                 if (applicationModel.icon == null) {
-                    applicationModel.icon = ic_launcher;
+                    // The icon can become null (e. g. on Huawei Nexus 6p angler), the factory falls back then.
+                    applicationModel.icon = iconFactory.createIcon(iconKey, resolveInfo.loadIcon(pm));
                 }
-
-                applicationModels.add(applicationModel);
             }
 
-            // Sort
-            Collections.sort(applicationModels, new Comparator<ApplicationModel>() {
-                @Override
-                public int compare(ApplicationModel o1, ApplicationModel o2) {
-                    return Collator.getInstance().compare(o1.label, o2.label);
-                }
-            });
+            CATALOG_LOAD.recordSince(start);
 
-            return 0;
+            return ApplicationList.of(sortedModels);
         }
 
         @Override
-        protected void onPostExecute(final Integer result) {
-            lvApplicationsAdapter.notifyDataSetChanged();
+        protected void onPostExecute(final ApplicationList result) {
+            // Share with the dock, a cancelled scan never gets here
+            model.getCatalog().update(result, locale);
+
+            // Only touch the adapter list on the main thread, the drawer may be laid out.
+            final ApplicationList replacedApplications = lvApplicationsAdapter.getApplications();
+            lvApplicationsAdapter.setApplications(result);
+
+            // Upload the atlas ahead of time
+            iconFactory.getAtlas().prepareToDraw();
+
+            recycleIcons(replacedApplications, result);
+
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Catalog: " + result.size() + " applications in about " + result.estimateBytes() + " bytes");
+                Log.d(TAG, "Icon memory: " + model.getCatalog().getIconBytes() + " bytes in catalog, "
+                        + iconFactory.getAtlas() + ", " + iconFactory);
+            }
         }
 
         @Override
-        protected void onPreExecute() {
-            applicationModels.clear();
-            lvApplicationsAdapter.notifyDataSetChanged();
+        protected void onCancelled(final ApplicationList result) {
+            // The icons of a cancelled scan have never been shown, but may be shared
+            if (result != null) {
+                recycleIcons(result, lvApplicationsAdapter.getApplications());
+            }
         }
 
         @Override
         protected void onProgressUpdate(final Integer... values) {
-            lvApplicationsAdapter.notifyDataSetChanged();
+            lvApplicationsAdapter.requestNotify();
         }
     }
 }
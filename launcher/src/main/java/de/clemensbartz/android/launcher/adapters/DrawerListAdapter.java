@@ -17,41 +17,238 @@
 
 package de.clemensbartz.android.launcher.adapters;
 
+import android.content.ComponentName;
 import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import de.clemensbartz.android.launcher.R;
+import de.clemensbartz.android.launcher.models.ApplicationList;
 import de.clemensbartz.android.launcher.models.ApplicationModel;
+import de.clemensbartz.android.launcher.util.IconFactory;
+import de.clemensbartz.android.launcher.util.Metrics;
 
 /**
- * Array adapter for the drawer. Takes an @{ApplicationModel}.
+ * Adapter for the drawer. Binds the cells by position directly from an
+ * {@link ApplicationList}, without creating a model per cell.
+ * <p/>
+ * Changes are collected and applied at most once per display frame, so that a burst
+ * of scans causes one rebind of the drawer. Must only be used from the main thread.
+ * <p/>
+ * Icons missing from the list, e. g. after they have been released on low memory, are
+ * loaded asynchronously. Each row holds the handle of its request and cancels it when
+ * it is rebound. Loading pauses while the drawer is flinging.
  *
  * @author Clemens Bartz
  * @since 1.0
  */
-public final class DrawerListAdapter extends ArrayAdapter<ApplicationModel> {
+public final class DrawerListAdapter extends BaseAdapter implements AbsListView.OnScrollListener {
 
     /** The resource id. */
     private final int resource;
+    /** The context. */
+    private final Context context;
+    /** The applications the views are bound to. */
+    private ApplicationList applications = ApplicationList.EMPTY;
+    /** The applications to apply on the next frame, <code>null</code> if there are none. */
+    private ApplicationList pendingApplications;
+    /** Flag, if a frame callback is posted. */
+    private boolean framePosted = false;
+    /** The callback applying changes on the next frame. */
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(final long frameTimeNanos) {
+            framePosted = false;
+
+            if (pendingApplications != null) {
+                applications = pendingApplications;
+                pendingApplications = null;
+                loadedIcons.clear();
+            }
+
+            appliedCount++;
+            notifyDataSetChanged();
+
+            // Run after the views have been notified, so that nothing binds the replaced applications anymore.
+            final List<Runnable> runnables = new ArrayList<>(afterApply);
+            afterApply.clear();
+            for (int i = 0, size = runnables.size(); i < size; i++) {
+                runnables.get(i).run();
+            }
+        }
+    };
+    /** Runnables waiting for the pending changes to be applied. */
+    private final List<Runnable> afterApply = new ArrayList<>(1);
+
+    /** The loader for missing icons. */
+    private final IconLoader iconLoader;
+    /** Icons loaded for the current applications. */
+    private final Map<ComponentName, Drawable> loadedIcons = new HashMap<>();
+    /** Callback remembering loaded icons. */
+    private final IconLoader.Callback iconCallback = new IconLoader.Callback() {
+        @Override
+        public void onIconLoaded(final ComponentName componentName, final Drawable icon) {
+            loadedIcons.put(componentName, icon);
+        }
+    };
+
+    /** Number of requested notifications. */
+    private int requestedCount;
+    /** Number of applied notifications. */
+    private int appliedCount;
 
     /**
      * Initializes a new adapter.
      * @param context the activity
-     * @param objects the list of application models
      */
-    public DrawerListAdapter(
-            final Context context,
-            final List<ApplicationModel> objects) {
-
-        super(context, R.layout.drawer_item, objects);
+    public DrawerListAdapter(final Context context) {
+        this.context = context;
         this.resource = R.layout.drawer_item;
+        this.iconLoader = new IconLoader(context.getPackageManager());
+    }
+
+    /**
+     * Set the factory for loading missing icons.
+     * @param iconFactory the factory
+     */
+    public void setIconFactory(final IconFactory iconFactory) {
+        iconLoader.setIconFactory(iconFactory);
+    }
+
+    /**
+     * Cancel all icon requests, e. g. when the activity is destroyed.
+     */
+    public void cancelIconLoads() {
+        iconLoader.cancelAll();
+    }
+
+    /**
+     *
+     * @return a description of the icon loader
+     */
+    public String getIconLoaderStatus() {
+        return iconLoader.toString();
+    }
+
+    /**
+     * Replace the applications. The views are notified on the next frame.
+     * @param newApplications the applications
+     */
+    public void setApplications(final ApplicationList newApplications) {
+        pendingApplications = newApplications;
+        requestNotify();
+    }
+
+    /**
+     * Notify the views on the next frame. Requests within one frame are merged.
+     */
+    public void requestNotify() {
+        requestedCount++;
+
+        if (!framePosted) {
+            framePosted = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    /**
+     * Run a runnable once the pending changes have been applied, or right away if
+     * there are none.
+     * @param runnable the runnable
+     */
+    public void runAfterApply(final Runnable runnable) {
+        if (framePosted) {
+            afterApply.add(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    /**
+     *
+     * @return the latest applications, including pending ones
+     */
+    public ApplicationList getApplications() {
+        return pendingApplications != null ? pendingApplications : applications;
+    }
+
+    /**
+     *
+     * @return the number of requested notifications
+     */
+    public int getRequestedCount() {
+        return requestedCount;
+    }
+
+    /**
+     *
+     * @return the number of applied notifications
+     */
+    public int getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     *
+     * @return the number of notifications merged into others
+     */
+    public int getSuppressedCount() {
+        return requestedCount - appliedCount - (framePosted ? 1 : 0);
+    }
+
+    /**
+     * Register the gauges of this adapter with the metrics.
+     * @param owner the owner of the gauges, which removes them when it goes
+     */
+    public void registerGauges(final Object owner) {
+        final Metrics metrics = Metrics.getInstance();
+        metrics.setGauge(owner, "drawer.notifyRequested", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getRequestedCount();
+            }
+        });
+
+        metrics.setGauge(owner, "drawer.notifyApplied", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getAppliedCount();
+            }
+        });
+
+        metrics.setGauge(owner, "drawer.notifySuppressed", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getSuppressedCount();
+            }
+        });
+    }
+
+    @Override
+    public int getCount() {
+        return applications.size();
+    }
+
+    @Override
+    public ApplicationModel getItem(final int position) {
+        return applications.get(position);
+    }
+
+    @Override
+    public long getItemId(final int position) {
+        return position;
     }
 
     @Override
@@ -63,7 +260,7 @@ public final class DrawerListAdapter extends ArrayAdapter<ApplicationModel> {
         View v = convertView;
 
         if (convertView == null) {
-            v = LayoutInflater.from(getContext()).inflate(resource, null);
+            v = LayoutInflater.from(context).inflate(resource, null);
 
             viewHolder = new ViewHolder();
             viewHolder.icon = v.findViewById(R.id.icon);
@@ -74,17 +271,47 @@ public final class DrawerListAdapter extends ArrayAdapter<ApplicationModel> {
             viewHolder = (ViewHolder) v.getTag();
         }
 
-        final ApplicationModel resolveInfo = getItem(position);
+        if (viewHolder != null && position < applications.size()) {
+            final String label = applications.getLabel(position);
 
-        if (resolveInfo != null && viewHolder != null) {
-            viewHolder.icon.setContentDescription(resolveInfo.label);
-            viewHolder.icon.setImageDrawable(resolveInfo.icon);
-            viewHolder.name.setText(resolveInfo.label);
+            // The row may still wait for the icon of another application.
+            if (viewHolder.request != null) {
+                viewHolder.request.cancel();
+                viewHolder.request = null;
+            }
+
+            Drawable icon = applications.getIcon(position);
+            if (icon == null) {
+                final String packageName = applications.getPackageName(position);
+                final String className = applications.getClassName(position);
+
+                icon = loadedIcons.get(new ComponentName(packageName, className));
+                if (icon == null) {
+                    viewHolder.request = iconLoader.load(packageName, className, viewHolder.icon, iconCallback);
+                }
+            }
+
+            viewHolder.icon.setContentDescription(label);
+            viewHolder.icon.setImageDrawable(icon);
+            viewHolder.name.setText(label);
         }
 
         return v;
     }
 
+    @Override
+    public void onScrollStateChanged(final AbsListView view, final int scrollState) {
+        iconLoader.setPaused(scrollState == SCROLL_STATE_FLING);
+    }
+
+    @Override
+    public void onScroll(final AbsListView view,
+                         final int firstVisibleItem,
+                         final int visibleItemCount,
+                         final int totalItemCount) {
+        // Nothing to do, rows request their icons when they are bound.
+    }
+
     /**
      * View holder class.
      */
@@ -93,5 +320,7 @@ public final class DrawerListAdapter extends ArrayAdapter<ApplicationModel> {
         private ImageView icon;
         /** The view for the label. */
         private TextView name;
+        /** The pending icon request, <code>null</code> if there is none. */
+        private IconLoader.Request request;
     }
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2017  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.adapters;
+
+import android.content.ComponentName;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+import de.clemensbartz.android.launcher.util.IconFactory;
+
+/**
+ * Loader for icons that are not in the catalog, e. g. after they have been released
+ * on low memory. Icons are loaded on a background thread, newest requests first, so
+ * that rows coming into view are served before rows that already scrolled away.
+ * <p/>
+ * Loading can be paused, e. g. while the drawer is flinging. All methods except the
+ * worker must be called from the main thread.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+final class IconLoader {
+
+    /** The package manager. */
+    private final PackageManager pm;
+    /** Handler for delivering icons on the main thread. */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** The queued requests, newest last. Guarded by itself. */
+    private final Deque<Request> queue = new ArrayDeque<>();
+    /** The worker draining the queue. */
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /** The factory for the icons, <code>null</code> if not known yet. */
+    private volatile IconFactory iconFactory;
+    /** Flag, if loading is paused. Guarded by the queue. */
+    private boolean paused = false;
+    /** Flag, if the worker is running. Guarded by the queue. */
+    private boolean running = false;
+
+    /** Number of requests. */
+    private int requestCount;
+    /** Number of cancelled requests. */
+    private int cancelledCount;
+    /** Number of delivered icons. */
+    private int deliveredCount;
+
+    /**
+     * Create a new loader.
+     * @param pm the package manager
+     */
+    IconLoader(final PackageManager pm) {
+        this.pm = pm;
+    }
+
+    /**
+     * Set the factory for the icons.
+     * @param iconFactory the factory
+     */
+    void setIconFactory(final IconFactory iconFactory) {
+        this.iconFactory = iconFactory;
+    }
+
+    /**
+     * Request the icon of an application for a view.
+     * @param packageName the package name
+     * @param className the class name
+     * @param target the view
+     * @param callback the callback on delivery
+     * @return the handle of the request
+     */
+    Request load(final String packageName,
+                 final String className,
+                 final ImageView target,
+                 final Callback callback) {
+
+        final Request request = new Request(new ComponentName(packageName, className), target, callback);
+        requestCount++;
+
+        synchronized (queue) {
+            queue.addLast(request);
+            startIfNeeded();
+        }
+
+        return request;
+    }
+
+    /**
+     * Pause or resume loading. Queued requests are kept.
+     * @param newPaused <code>true</code> to pause
+     */
+    void setPaused(final boolean newPaused) {
+        synchronized (queue) {
+            paused = newPaused;
+            startIfNeeded();
+        }
+    }
+
+    /**
+     * Cancel all requests.
+     */
+    void cancelAll() {
+        synchronized (queue) {
+            for (Request request : queue) {
+                request.cancel();
+            }
+            queue.clear();
+        }
+    }
+
+    /**
+     * Start the worker, if there is work and it is not running. Must hold the queue.
+     */
+    private void startIfNeeded() {
+        if (!running && !paused && !queue.isEmpty()) {
+            running = true;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(worker);
+        }
+    }
+
+    /**
+     * Load icons until the queue is empty or loading is paused.
+     */
+    private void drain() {
+        while (true) {
+            final Request request;
+            synchronized (queue) {
+                request = paused ? null : queue.pollLast();
+                if (request == null) {
+                    running = false;
+                    return;
+                }
+            }
+
+            if (request.cancelled) {
+                continue;
+            }
+
+            final Drawable icon = loadIcon(request.componentName);
+            if (icon == null) {
+                continue;
+            }
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (request.cancelled) {
+                        return;
+                    }
+
+                    // The icon may have been recycled on low memory while it was loaded.
+                    final IconFactory currentIconFactory = iconFactory;
+                    if (currentIconFactory != null && currentIconFactory.isRecycled(icon)) {
+                        synchronized (queue) {
+                            queue.addLast(request);
+                            startIfNeeded();
+                        }
+                    } else {
+                        deliveredCount++;
+                        request.target.setImageDrawable(icon);
+                        request.callback.onIconLoaded(request.componentName, icon);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Load an icon. Runs on the worker.
+     * @param componentName the component
+     * @return the icon, or <code>null</code> if it cannot be loaded
+     */
+    private Drawable loadIcon(final ComponentName componentName) {
+        final IconFactory currentIconFactory = iconFactory;
+        if (currentIconFactory == null) {
+            return null;
+        }
+
+        try {
+            final ActivityInfo info = pm.getActivityInfo(componentName, 0);
+            final String iconKey = IconFactory.getIconKey(info);
+
+            final Drawable icon = currentIconFactory.getIcon(iconKey);
+            if (icon != null) {
+                return icon;
+            }
+
+            return currentIconFactory.createIcon(iconKey, info.loadIcon(pm));
+        } catch (final PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @return the number of requests
+     */
+    int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     *
+     * @return the number of cancelled requests
+     */
+    int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     *
+     * @return the number of delivered icons
+     */
+    int getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    @Override
+    public String toString() {
+        final int pending;
+        synchronized (queue) {
+            pending = queue.size();
+        }
+
+        return String.format(Locale.US,
+                "IconLoader{requests=%d, delivered=%d, cancelled=%d, pending=%d}",
+                requestCount, deliveredCount, cancelledCount, pending);
+    }
+
+    /**
+     * Callback for delivered icons, called on the main thread.
+     */
+    interface Callback {
+        /**
+         * Called when an icon has been set on its view.
+         * @param componentName the component
+         * @param icon the icon
+         */
+        void onIconLoaded(ComponentName componentName, Drawable icon);
+    }
+
+    /**
+     * Handle of a request. Cancel it when the view is bound to another application.
+     */
+    final class Request {
+        /** The component. */
+        private final ComponentName componentName;
+        /** The view. */
+        private final ImageView target;
+        /** The callback on delivery. */
+        private final Callback callback;
+        /** Flag, if the request has been cancelled. */
+        private volatile boolean cancelled = false;
+
+        /**
+         * Create a new request.
+         * @param componentName the component
+         * @param target the view
+         * @param callback the callback on delivery
+         */
+        private Request(final ComponentName componentName, final ImageView target, final Callback callback) {
+            this.componentName = componentName;
+            this.target = target;
+            this.callback = callback;
+        }
+
+        /**
+         * Cancel the request. The icon is not delivered anymore.
+         */
+        void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                cancelledCount++;
+            }
+        }
+    }
+}
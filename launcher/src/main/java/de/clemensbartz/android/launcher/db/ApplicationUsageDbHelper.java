@@ -18,11 +18,20 @@
 package de.clemensbartz.android.launcher.db;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import de.clemensbartz.android.launcher.BuildConfig;
+
 /**
  * Helper class for opening a SQLite database.
+ * <p/>
+ * The database runs in write-ahead logging mode. Queries outside of transactions
+ * are served from secondary connections of the pool, so reads do not block on
+ * writes and vice versa.
+ * <p/>
+ * Statements are monitored by a {@link StatementMonitor}, which is on in debug builds.
  *
  * @author Clemens Bartz
  * @since 1.0
@@ -30,31 +39,82 @@ import android.database.sqlite.SQLiteOpenHelper;
 public final class ApplicationUsageDbHelper extends SQLiteOpenHelper {
     /** The instance for static lookup. */
     private static ApplicationUsageDbHelper instance;
+    /** The monitor for statements. */
+    private final StatementMonitor monitor;
     /** The version of the database. */
     private static final int DATABASE_VERSION = 3;
     /** The database name. */
     private static final String DATABASE_NAME = "ApplicationUsage.db";
+    /** Synchronous mode; in WAL mode only checkpoints need a full sync. */
+    private static final String PRAGMA_SYNCHRONOUS = "PRAGMA synchronous=NORMAL";
+    /** Number of pages after which the log is checkpointed; the table is small. */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 100;
+    /** Statement to set the automatic checkpoint. */
+    private static final String PRAGMA_WAL_AUTOCHECKPOINT = "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES;
 
     /**
      *
      * @param context initialize with a context
      * @return the current instance
      */
-    public static SQLiteOpenHelper getInstance(final Context context) {
+    public static synchronized ApplicationUsageDbHelper getInstance(final Context context) {
         if (instance == null) {
             final Context applicationContext = context.getApplicationContext();
-            instance = new ApplicationUsageDbHelper(applicationContext);
+            instance = new ApplicationUsageDbHelper(applicationContext, new StatementMonitor(BuildConfig.DEBUG));
         }
 
         return instance;
     }
 
+    /**
+     * Create a helper that is not shared with the launcher, e. g. on a renamed
+     * database of a test. The launcher uses {@link #getInstance(Context)}.
+     * @param context the context
+     */
+    public ApplicationUsageDbHelper(final Context context) {
+        this(context, new StatementMonitor(BuildConfig.DEBUG));
+    }
+
     /**
      * Create a new helper class in a context.
      * @param context the context
+     * @param monitor the monitor for statements
      */
-    private ApplicationUsageDbHelper(final Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private ApplicationUsageDbHelper(final Context context, final StatementMonitor monitor) {
+        super(context, DATABASE_NAME, monitor.getCursorFactory(), DATABASE_VERSION);
+        this.monitor = monitor;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     *
+     * @return the monitor for statements
+     */
+    public StatementMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Open the database with monitored statements. Must not be called from the main thread.
+     * @return the database
+     */
+    public MonitoredDatabase getDatabase() {
+        return new MonitoredDatabase(getWritableDatabase(), monitor);
+    }
+
+    @Override
+    public void onConfigure(final SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
+
+        sqLiteDatabase.execSQL(PRAGMA_SYNCHRONOUS);
+
+        // This pragma returns a row, so it has to be run as a query.
+        final Cursor c = sqLiteDatabase.rawQuery(PRAGMA_WAL_AUTOCHECKPOINT, null);
+        try {
+            c.moveToFirst();
+        } finally {
+            c.close();
+        }
     }
 
     @Override
@@ -81,6 +141,38 @@ public final class ApplicationUsageDbHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Move the content of the write-ahead log into the database and truncate the log.
+     * Must not be called from the main thread.
+     */
+    public void checkpoint() {
+        getDatabase().checkpoint();
+    }
+
+    /**
+     * Update the statistics of the query planner. Must not be called from the main thread.
+     */
+    public void analyze() {
+        getDatabase().analyze();
+    }
+
+    /**
+     * Rebuild the database file to reclaim free pages. Must not be called from the
+     * main thread or inside a transaction.
+     */
+    public void vacuum() {
+        getDatabase().vacuum();
+    }
+
+    /**
+     * Get the share of unused pages in the database file. Must not be called from the
+     * main thread.
+     * @return the share between 0 and 1
+     */
+    public float getFreePageRatio() {
+        return getDatabase().getFreePageRatio();
+    }
+
     /**
      * Drop database and recreate a new one.
      * @param sqLiteDatabase the database to use
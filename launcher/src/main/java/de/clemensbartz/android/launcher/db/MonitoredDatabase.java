@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Usage database with monitored statements. Only the operations of the usage table
+ * are offered; queries are timed by the cursor factory of the database.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class MonitoredDatabase {
+
+    /** Statement to checkpoint and truncate the log. */
+    private static final String PRAGMA_WAL_CHECKPOINT = "PRAGMA wal_checkpoint(TRUNCATE)";
+    /** Statement to rebuild the database file. */
+    private static final String VACUUM = "VACUUM";
+    /** Statement to update the statistics of the query planner. */
+    private static final String ANALYZE = "ANALYZE";
+    /** Statement to count the pages of the database file. */
+    private static final String PRAGMA_PAGE_COUNT = "PRAGMA page_count";
+    /** Statement to count the unused pages of the database file. */
+    private static final String PRAGMA_FREELIST_COUNT = "PRAGMA freelist_count";
+
+    /** The database. */
+    private final SQLiteDatabase db;
+    /** The monitor. */
+    private final StatementMonitor monitor;
+
+    /**
+     * Create a new database.
+     * @param db the database
+     * @param monitor the monitor
+     */
+    MonitoredDatabase(final SQLiteDatabase db, final StatementMonitor monitor) {
+        this.db = db;
+        this.monitor = monitor;
+    }
+
+    /**
+     *
+     * @return <code>true</code>, if the database is open
+     */
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    /**
+     * Query a table, see {@link SQLiteDatabase#query(String, String[], String, String[], String, String, String)}.
+     * @param table the table
+     * @param columns the columns
+     * @param selection the selection
+     * @param selectionArgs the arguments of the selection
+     * @param groupBy the grouping
+     * @param having the filter of groups
+     * @param orderBy the order
+     * @return the cursor
+     */
+    public Cursor query(final String table,
+                        final String[] columns,
+                        final String selection,
+                        final String[] selectionArgs,
+                        final String groupBy,
+                        final String having,
+                        final String orderBy) {
+        return db.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+    }
+
+    /**
+     * Update rows, see {@link SQLiteDatabase#update(String, ContentValues, String, String[])}.
+     * @param table the table
+     * @param values the values
+     * @param whereClause the selection
+     * @param whereArgs the arguments of the selection
+     * @return the number of updated rows
+     */
+    public int update(final String table, final ContentValues values, final String whereClause, final String[] whereArgs) {
+        final long start = monitor.start();
+        final int rows = db.update(table, values, whereClause, whereArgs);
+        if (start != 0) {
+            monitor.record("UPDATE " + table + " SET " + values.keySet() + " WHERE " + whereClause, start);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Insert a row, see {@link SQLiteDatabase#insertOrThrow(String, String, ContentValues)}.
+     * @param table the table
+     * @param nullColumnHack the column set to null for empty values
+     * @param values the values
+     * @return the id of the row
+     */
+    public long insertOrThrow(final String table, final String nullColumnHack, final ContentValues values) {
+        final long start = monitor.start();
+        final long id = db.insertOrThrow(table, nullColumnHack, values);
+        if (start != 0) {
+            monitor.record("INSERT INTO " + table + ' ' + values.keySet(), start);
+        }
+
+        return id;
+    }
+
+    /**
+     * Delete rows, see {@link SQLiteDatabase#delete(String, String, String[])}.
+     * @param table the table
+     * @param whereClause the selection
+     * @param whereArgs the arguments of the selection
+     * @return the number of deleted rows
+     */
+    public int delete(final String table, final String whereClause, final String[] whereArgs) {
+        final long start = monitor.start();
+        final int rows = db.delete(table, whereClause, whereArgs);
+        if (start != 0) {
+            monitor.record("DELETE FROM " + table + " WHERE " + whereClause, start);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Move the content of the write-ahead log into the database and truncate the log.
+     */
+    public void checkpoint() {
+        // The pragma returns a row, a statement reads it without a cursor.
+        queryForLong(PRAGMA_WAL_CHECKPOINT);
+    }
+
+    /**
+     * Get the share of unused pages in the database file.
+     * @return the share between 0 and 1
+     */
+    public float getFreePageRatio() {
+        final long pageCount = queryForLong(PRAGMA_PAGE_COUNT);
+
+        return pageCount == 0 ? 0 : (float) queryForLong(PRAGMA_FREELIST_COUNT) / pageCount;
+    }
+
+    /**
+     * Run a statement returning a single number.
+     * @param sql the statement
+     * @return the number in the first column of the first row
+     */
+    private long queryForLong(final String sql) {
+        final long start = monitor.start();
+        final SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+            monitor.record(sql, start);
+        }
+    }
+
+    /**
+     * Update the statistics of the query planner.
+     */
+    public void analyze() {
+        final long start = monitor.start();
+        db.execSQL(ANALYZE);
+        monitor.record(ANALYZE, start);
+    }
+
+    /**
+     * Rebuild the database file to reclaim free pages. Must not be called inside a transaction.
+     */
+    public void vacuum() {
+        final long start = monitor.start();
+        db.execSQL(VACUUM);
+        monitor.record(VACUUM, start);
+    }
+
+    /**
+     * Begin a non-exclusive transaction, see {@link SQLiteDatabase#beginTransactionNonExclusive()}.
+     */
+    public void beginTransactionNonExclusive() {
+        db.beginTransactionNonExclusive();
+        monitor.beginTransaction();
+    }
+
+    /**
+     * Mark the current transaction as successful.
+     */
+    public void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    /**
+     * End the current transaction. It is committed, if it has been marked as successful.
+     */
+    public void endTransaction() {
+        try {
+            db.endTransaction();
+        } finally {
+            monitor.endTransaction();
+        }
+    }
+}
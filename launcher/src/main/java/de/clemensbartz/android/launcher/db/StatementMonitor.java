@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.clemensbartz.android.launcher.util.Metrics;
+
+/**
+ * Monitor for the statements of the usage database. Statements are grouped by their
+ * shape, i. e. the SQL without bound arguments, and recorded by a timer of the
+ * {@link Metrics} per shape. Statements slower than a threshold are logged with the
+ * calling operation.
+ * <p/>
+ * Queries are timed by a cursor factory when they are executed, i. e. when the first
+ * row is read. Other statements are timed by {@link MonitoredDatabase}. Monitoring can
+ * be switched on and off at any time; when it is off, a statement costs one volatile read.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class StatementMonitor {
+
+    /** The tag for logging. */
+    private static final String TAG = "StatementMonitor";
+    /** Default threshold for slow statements in milliseconds. */
+    private static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 50;
+    /** Shape of transactions. */
+    static final String SHAPE_TRANSACTION = "TRANSACTION";
+    /** Prefix of the description of a query. */
+    private static final String QUERY_PREFIX = "SQLiteQuery: ";
+    /** Package of this class, frames in it are skipped when looking for the operation. */
+    private static final String PACKAGE = StatementMonitor.class.getPackage().getName();
+    /** Number of frames shown as calling operation. */
+    private static final int OPERATION_FRAMES = 2;
+    /** Prefix of the names of the timers. */
+    private static final String METRIC_PREFIX = "db ";
+
+    /** The timers by shape. */
+    private final ConcurrentMap<String, Metrics.Timer> timers = new ConcurrentHashMap<>();
+    /** Counter of slow statements. */
+    private final Metrics.Counter slowCounter = Metrics.getInstance().counter("db.slow");
+    /** Start and depth of the transaction of the current thread. */
+    private final ThreadLocal<long[]> transactions = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+    /** Factory for cursors, timing queries while monitoring is on. */
+    private final SQLiteDatabase.CursorFactory cursorFactory = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(final SQLiteDatabase db,
+                                final SQLiteCursorDriver masterQuery,
+                                final String editTable,
+                                final SQLiteQuery query) {
+            if (!enabled) {
+                return new SQLiteCursor(masterQuery, editTable, query);
+            }
+
+            return new MonitoredCursor(masterQuery, editTable, query);
+        }
+    };
+
+    /** Flag, if statements are monitored. */
+    private volatile boolean enabled;
+    /** The threshold for slow statements in nanoseconds. */
+    private volatile long slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MILLIS * 1000000L;
+
+    /**
+     * Create a new monitor.
+     * @param enabled <code>true</code> to start monitoring right away
+     */
+    StatementMonitor(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     *
+     * @return the factory for cursors of the database
+     */
+    SQLiteDatabase.CursorFactory getCursorFactory() {
+        return cursorFactory;
+    }
+
+    /**
+     * Switch monitoring on or off. Collected statistics are kept.
+     * @param newEnabled <code>true</code> to monitor statements
+     */
+    public void setEnabled(final boolean newEnabled) {
+        enabled = newEnabled;
+    }
+
+    /**
+     *
+     * @return <code>true</code>, if statements are monitored
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set the threshold for logging slow statements.
+     * @param millis the threshold in milliseconds
+     */
+    public void setSlowThresholdMillis(final long millis) {
+        slowThresholdNanos = millis * 1000000L;
+    }
+
+    /**
+     *
+     * @return the threshold for logging slow statements in milliseconds
+     */
+    public long getSlowThresholdMillis() {
+        return slowThresholdNanos / 1000000L;
+    }
+
+    /**
+     * Start timing a statement.
+     * @return the start time, or 0 if monitoring is off
+     */
+    long start() {
+        return enabled ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    /**
+     * Record a statement.
+     * @param shape the shape of the statement
+     * @param start the start time from {@link #start()}
+     */
+    void record(final String shape, final long start) {
+        if (start == 0) {
+            return;
+        }
+
+        final long duration = SystemClock.elapsedRealtimeNanos() - start;
+
+        // Avoid building the name of the timer for every statement.
+        Metrics.Timer timer = timers.get(shape);
+        if (timer == null) {
+            timer = Metrics.getInstance().timer(METRIC_PREFIX + shape);
+            timers.put(shape, timer);
+        }
+        timer.record(duration);
+
+        if (duration >= slowThresholdNanos) {
+            slowCounter.increment();
+            Log.w(TAG, String.format(Locale.US, "Slow statement (%.1f ms) in %s: %s",
+                    duration / 1e6, getOperation(), shape));
+        }
+    }
+
+    /**
+     * Note the start of a transaction. Nested transactions are timed as part of the outermost.
+     * The depth is tracked even while monitoring is off, so that switching it on within a
+     * nested transaction pairs the ends correctly.
+     */
+    void beginTransaction() {
+        final long[] transaction = transactions.get();
+        if (transaction[1]++ == 0) {
+            // Stays 0 while monitoring is off, so that the transaction is not timed.
+            transaction[0] = start();
+        }
+    }
+
+    /**
+     * Note the end of a transaction. Only the outermost transaction is recorded, and only
+     * if it was started and ended while monitoring is on.
+     */
+    void endTransaction() {
+        final long[] transaction = transactions.get();
+        if (transaction[1] > 0 && --transaction[1] == 0 && enabled) {
+            record(SHAPE_TRANSACTION, transaction[0]);
+        }
+    }
+
+    /**
+     * Get the operation that runs the current statement. Only used for slow statements,
+     * since it walks the stack.
+     * @return the calling methods outside of the database package
+     */
+    private static String getOperation() {
+        final StringBuilder operation = new StringBuilder();
+        int frames = 0;
+
+        for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
+            final String className = element.getClassName();
+            if (!className.startsWith("de.clemensbartz.") || className.startsWith(PACKAGE)) {
+                continue;
+            }
+
+            if (frames > 0) {
+                operation.append(" < ");
+            }
+            operation.append(className.substring(className.lastIndexOf('.') + 1))
+                    .append('.').append(element.getMethodName());
+
+            if (++frames == OPERATION_FRAMES) {
+                break;
+            }
+        }
+
+        return frames > 0 ? operation.toString() : "unknown";
+    }
+
+    /**
+     * Get the shape of a query.
+     * @param query the query
+     * @return the SQL of the query
+     */
+    private static String getShape(final SQLiteQuery query) {
+        final String description = query.toString();
+
+        return description.startsWith(QUERY_PREFIX) ? description.substring(QUERY_PREFIX.length()) : description;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("StatementMonitor{enabled=").append(enabled)
+                .append(", slow=").append(slowCounter.get());
+        for (Map.Entry<String, Metrics.Timer> entry : timers.entrySet()) {
+            sb.append(", ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Cursor timing the execution of its query, which happens when the rows are counted
+     * for the first time.
+     */
+    private final class MonitoredCursor extends SQLiteCursor {
+        /** The shape of the query. */
+        private final String shape;
+        /** Flag, if the query has been executed. */
+        private boolean executed = false;
+
+        /**
+         * Create a new cursor.
+         * @param driver the driver
+         * @param editTable the table
+         * @param query the query
+         */
+        private MonitoredCursor(final SQLiteCursorDriver driver, final String editTable, final SQLiteQuery query) {
+            super(driver, editTable, query);
+            this.shape = getShape(query);
+        }
+
+        @Override
+        public int getCount() {
+            if (executed) {
+                return super.getCount();
+            }
+
+            executed = true;
+            final long start = start();
+            final int count = super.getCount();
+            record(shape, start);
+
+            return count;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.models;
+
+import android.content.ComponentName;
+import android.graphics.drawable.Drawable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import de.clemensbartz.android.launcher.util.DrawableUtil;
+import de.clemensbartz.android.launcher.util.Metrics;
+
+/**
+ * Catalog of installed applications indexed by component. The drawer publishes its
+ * scan results here, so that the dock can resolve its entries without asking the
+ * package manager again.
+ * <p/>
+ * The scan result is held as a compact {@link ApplicationList}. Applications resolved
+ * outside of a scan are kept as models next to it.
+ * <p/>
+ * The catalog is held by the process-scoped {@link HomeModel}, so it outlives the
+ * activity. A recreated activity can rebind to the last scan as long as the catalog
+ * is still valid for the current locale and has not been invalidated by a package change.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class ApplicationCatalog {
+
+    /** The scanned applications in drawer order. */
+    private volatile ApplicationList applications = ApplicationList.EMPTY;
+    /** Applications resolved outside of a scan. */
+    private volatile Map<ComponentName, ApplicationModel> extras = new HashMap<>(0);
+    /** The locale of the labels of the last scan, <code>null</code> if there was no scan. */
+    private volatile Locale locale;
+    /** Flag, if the last scan is outdated. */
+    private volatile boolean stale = true;
+
+    /**
+     * Replace the whole catalog with the result of a scan.
+     * @param scannedApplications the scanned applications in drawer order
+     * @param scanLocale the locale of the labels
+     */
+    public synchronized void update(final ApplicationList scannedApplications, final Locale scanLocale) {
+        applications = scannedApplications;
+        extras = new HashMap<>(0);
+        locale = scanLocale;
+        stale = false;
+    }
+
+    /**
+     * Mark the last scan as outdated, e. g. after a package change.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * @param currentLocale the current locale
+     * @return <code>true</code>, if the last scan can be reused for the locale
+     */
+    public boolean isValidFor(final Locale currentLocale) {
+        return !stale && currentLocale.equals(locale);
+    }
+
+    /**
+     *
+     * @return the scanned applications in drawer order
+     */
+    public ApplicationList getApplications() {
+        return applications;
+    }
+
+    /**
+     * Add a single application model, e. g. one resolved outside of a scan.
+     * @param applicationModel the application model
+     */
+    public synchronized void put(final ApplicationModel applicationModel) {
+        final Map<ComponentName, ApplicationModel> newExtras = new HashMap<>(extras);
+        newExtras.put(new ComponentName(applicationModel.packageName, applicationModel.className), applicationModel);
+
+        extras = newExtras;
+    }
+
+    /**
+     * Release the icons of all applications that are not kept. The catalog becomes
+     * stale, so that the next scan loads the icons again.
+     * @param keep the models to keep as they are, e. g. the ones in the dock
+     * @return the released icons
+     */
+    public synchronized List<Drawable> releaseIcons(final List<ApplicationModel> keep) {
+        final Set<Drawable> keptIcons = Collections.newSetFromMap(new IdentityHashMap<Drawable, Boolean>());
+        for (int i = 0, size = keep.size(); i < size; i++) {
+            keptIcons.add(keep.get(i).icon);
+        }
+
+        final Set<Drawable> releasedIcons = Collections.newSetFromMap(new IdentityHashMap<Drawable, Boolean>());
+
+        final Map<ComponentName, ApplicationModel> newExtras = new HashMap<>(extras.size() * 2);
+        for (Map.Entry<ComponentName, ApplicationModel> entry : extras.entrySet()) {
+            final ApplicationModel applicationModel = entry.getValue();
+            if (applicationModel.icon != null && !keptIcons.contains(applicationModel.icon)) {
+                releasedIcons.add(applicationModel.icon);
+            } else {
+                newExtras.put(entry.getKey(), applicationModel);
+            }
+        }
+
+        applications = applications.withoutIcons(keptIcons, releasedIcons);
+        extras = newExtras;
+        stale = true;
+
+        return new ArrayList<>(releasedIcons);
+    }
+
+    /**
+     * Drop all applications that are not kept, including their metadata. The catalog
+     * becomes stale, so that the next scan fills it again.
+     * @param keep the models to keep, e. g. the ones in the dock
+     * @return the estimated number of bytes of the dropped metadata
+     */
+    public synchronized long retainOnly(final List<ApplicationModel> keep) {
+        final Map<ComponentName, ApplicationModel> newExtras = new HashMap<>(keep.size() * 2);
+        for (int i = 0, size = keep.size(); i < size; i++) {
+            final ApplicationModel applicationModel = keep.get(i);
+            newExtras.put(new ComponentName(applicationModel.packageName, applicationModel.className), applicationModel);
+        }
+
+        final long bytes = applications.estimateBytes();
+
+        applications = ApplicationList.EMPTY;
+        extras = newExtras;
+        stale = true;
+
+        return bytes;
+    }
+
+    /**
+     * Register the gauges of this catalog with the metrics.
+     * @param owner the owner of the gauges, which removes them when it goes
+     */
+    public void registerGauges(final Object owner) {
+        final Metrics metrics = Metrics.getInstance();
+        metrics.setGauge(owner, "catalog.size", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return size();
+            }
+        });
+
+        metrics.setGauge(owner, "catalog.iconBytes", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getIconBytes();
+            }
+        });
+    }
+
+    /**
+     * Get the memory held by the icons of the catalog. Shared icons are counted once.
+     * @return the number of bytes
+     */
+    public long getIconBytes() {
+        final Set<Drawable> icons = Collections.newSetFromMap(new IdentityHashMap<Drawable, Boolean>());
+        final ApplicationList currentApplications = applications;
+        for (int i = 0, size = currentApplications.size(); i < size; i++) {
+            if (currentApplications.getIcon(i) != null) {
+                icons.add(currentApplications.getIcon(i));
+            }
+        }
+        for (ApplicationModel applicationModel : extras.values()) {
+            if (applicationModel.icon != null) {
+                icons.add(applicationModel.icon);
+            }
+        }
+
+        long bytes = 0;
+        for (Drawable icon : icons) {
+            bytes += DrawableUtil.getByteCount(icon);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Look up an application. Changes to the returned model do not reach the catalog.
+     * @param packageName the package name
+     * @param className the class name
+     * @return a new application model or <code>null</code>, if it is not in the catalog
+     */
+    public ApplicationModel get(final String packageName, final String className) {
+        final ApplicationList currentApplications = applications;
+        final int position = currentApplications.indexOf(packageName, className);
+        if (position >= 0) {
+            return currentApplications.get(position);
+        }
+
+        final ApplicationModel extra = extras.get(new ComponentName(packageName, className));
+        if (extra == null) {
+            return null;
+        }
+
+        final ApplicationModel applicationModel = new ApplicationModel();
+        applicationModel.label = extra.label;
+        applicationModel.icon = extra.icon;
+        applicationModel.packageName = extra.packageName;
+        applicationModel.className = extra.className;
+        applicationModel.disabled = extra.disabled;
+        applicationModel.sticky = extra.sticky;
+
+        return applicationModel;
+    }
+
+    /**
+     *
+     * @return the number of applications in the catalog
+     */
+    public int size() {
+        return applications.size() + extras.size();
+    }
+}
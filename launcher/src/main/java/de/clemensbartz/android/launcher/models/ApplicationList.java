@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.models;
+
+import android.graphics.drawable.Drawable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, compact list of applications in drawer order. The fields are held in
+ * parallel arrays instead of one object per application, and package names are shared
+ * between the activities of a package. Positions are looked up by component through a
+ * sorted index array.
+ * <p/>
+ * {@link #get(int)} creates a lightweight {@link ApplicationModel} for handing a single
+ * application to the UI; bulk access should use the indexed getters.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class ApplicationList {
+
+    /** The empty list. */
+    public static final ApplicationList EMPTY = new ApplicationList(
+            new String[0], new String[0], new String[0], new Drawable[0], new byte[0], new int[0]);
+
+    /** Flag for disabled applications. */
+    private static final byte FLAG_DISABLED = 1;
+    /** Flag for sticky applications. */
+    private static final byte FLAG_STICKY = 2;
+
+    /** Estimated bytes of a string without its characters. */
+    private static final int STRING_OVERHEAD = 40;
+    /** Estimated bytes of an array without its elements. */
+    private static final int ARRAY_OVERHEAD = 16;
+    /** Estimated bytes of a reference. */
+    private static final int REFERENCE_SIZE = 4;
+
+    /** The labels. */
+    private final String[] labels;
+    /** The package names, shared between activities of a package. */
+    private final String[] packageNames;
+    /** The class names. */
+    private final String[] classNames;
+    /** The icons. */
+    private final Drawable[] icons;
+    /** The flags. */
+    private final byte[] flags;
+    /** The positions sorted by package name and class name. */
+    private final int[] componentOrder;
+
+    /**
+     * Create a new list.
+     * @param labels the labels
+     * @param packageNames the package names
+     * @param classNames the class names
+     * @param icons the icons
+     * @param flags the flags
+     * @param componentOrder the positions sorted by package name and class name
+     */
+    private ApplicationList(
+            final String[] labels,
+            final String[] packageNames,
+            final String[] classNames,
+            final Drawable[] icons,
+            final byte[] flags,
+            final int[] componentOrder) {
+        this.labels = labels;
+        this.packageNames = packageNames;
+        this.classNames = classNames;
+        this.icons = icons;
+        this.flags = flags;
+        this.componentOrder = componentOrder;
+    }
+
+    /**
+     * Pack application models into a list. The models are not referenced afterwards.
+     * @param applicationModels the models in drawer order
+     * @return the list
+     */
+    public static ApplicationList of(final List<ApplicationModel> applicationModels) {
+        final int size = applicationModels.size();
+        final String[] labels = new String[size];
+        final String[] packageNames = new String[size];
+        final String[] classNames = new String[size];
+        final Drawable[] icons = new Drawable[size];
+        final byte[] flags = new byte[size];
+
+        final Map<String, String> sharedPackageNames = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            final ApplicationModel applicationModel = applicationModels.get(i);
+
+            String packageName = sharedPackageNames.get(applicationModel.packageName);
+            if (packageName == null) {
+                packageName = applicationModel.packageName;
+                sharedPackageNames.put(packageName, packageName);
+            }
+
+            labels[i] = applicationModel.label;
+            packageNames[i] = packageName;
+            classNames[i] = applicationModel.className;
+            icons[i] = applicationModel.icon;
+            flags[i] = (byte) ((applicationModel.disabled ? FLAG_DISABLED : 0) | (applicationModel.sticky ? FLAG_STICKY : 0));
+        }
+
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer o1, final Integer o2) {
+                return compareComponents(packageNames[o1], classNames[o1], packageNames[o2], classNames[o2]);
+            }
+        });
+
+        final int[] componentOrder = new int[size];
+        for (int i = 0; i < size; i++) {
+            componentOrder[i] = order[i];
+        }
+
+        return new ApplicationList(labels, packageNames, classNames, icons, flags, componentOrder);
+    }
+
+    /**
+     * Compare two components by package name and class name.
+     * @param packageName1 the first package name
+     * @param className1 the first class name
+     * @param packageName2 the second package name
+     * @param className2 the second class name
+     * @return the comparison result
+     */
+    private static int compareComponents(
+            final String packageName1,
+            final String className1,
+            final String packageName2,
+            final String className2) {
+        final int packageNameComparison = packageName1.compareTo(packageName2);
+        if (packageNameComparison != 0) {
+            return packageNameComparison;
+        }
+
+        return className1.compareTo(className2);
+    }
+
+    /**
+     *
+     * @return the number of applications
+     */
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * @param position the position
+     * @return the label
+     */
+    public String getLabel(final int position) {
+        return labels[position];
+    }
+
+    /**
+     * @param position the position
+     * @return the package name
+     */
+    public String getPackageName(final int position) {
+        return packageNames[position];
+    }
+
+    /**
+     * @param position the position
+     * @return the class name
+     */
+    public String getClassName(final int position) {
+        return classNames[position];
+    }
+
+    /**
+     * @param position the position
+     * @return the icon, can be <code>null</code> if it has been released
+     */
+    public Drawable getIcon(final int position) {
+        return icons[position];
+    }
+
+    /**
+     * @param position the position
+     * @return the disabled flag
+     */
+    public boolean isDisabled(final int position) {
+        return (flags[position] & FLAG_DISABLED) != 0;
+    }
+
+    /**
+     * @param position the position
+     * @return the sticky flag
+     */
+    public boolean isSticky(final int position) {
+        return (flags[position] & FLAG_STICKY) != 0;
+    }
+
+    /**
+     * Create a model for one application.
+     * @param position the position
+     * @return a new model
+     */
+    public ApplicationModel get(final int position) {
+        final ApplicationModel applicationModel = new ApplicationModel();
+        applicationModel.label = labels[position];
+        applicationModel.packageName = packageNames[position];
+        applicationModel.className = classNames[position];
+        applicationModel.icon = icons[position];
+        applicationModel.disabled = isDisabled(position);
+        applicationModel.sticky = isSticky(position);
+
+        return applicationModel;
+    }
+
+    /**
+     * Find the position of a component.
+     * @param packageName the package name
+     * @param className the class name
+     * @return the position, or -1 if the component is not in the list
+     */
+    public int indexOf(final String packageName, final String className) {
+        int low = 0;
+        int high = componentOrder.length - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int position = componentOrder[middle];
+            final int comparison = compareComponents(packageNames[position], classNames[position], packageName, className);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return position;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get a copy of this list without the icons that are not kept. The other arrays
+     * are shared with this list.
+     * @param keptIcons the icons to keep
+     * @param releasedIcons the released icons, will be added to
+     * @return the copy
+     */
+    ApplicationList withoutIcons(final Set<Drawable> keptIcons, final Set<Drawable> releasedIcons) {
+        final Drawable[] newIcons = new Drawable[icons.length];
+        for (int i = 0; i < icons.length; i++) {
+            if (icons[i] == null || keptIcons.contains(icons[i])) {
+                newIcons[i] = icons[i];
+            } else {
+                releasedIcons.add(icons[i]);
+            }
+        }
+
+        return new ApplicationList(labels, packageNames, classNames, newIcons, flags, componentOrder);
+    }
+
+    /**
+     * Estimate the heap size of this list without the icons. Shared strings are counted once.
+     * @return the estimated number of bytes
+     */
+    public long estimateBytes() {
+        long bytes = 4L * ARRAY_OVERHEAD + 4L * REFERENCE_SIZE * labels.length
+                + ARRAY_OVERHEAD + flags.length
+                + ARRAY_OVERHEAD + 4L * componentOrder.length;
+
+        String lastPackageName = null;
+        for (int i = 0; i < labels.length; i++) {
+            bytes += estimateBytes(labels[i]) + estimateBytes(classNames[i]);
+
+            // Shared package names are neighbours in component order
+            final String packageName = packageNames[componentOrder[i]];
+            if (packageName != lastPackageName) {
+                bytes += estimateBytes(packageName);
+                lastPackageName = packageName;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @param string the string, can be <code>null</code>
+     * @return the estimated number of bytes of the string
+     */
+    private static long estimateBytes(final String string) {
+        return string == null ? 0 : STRING_OVERHEAD + 2L * string.length();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.models;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.AtomicFile;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Snapshot of the last rendered dock, so that a cold start can paint the dock in its
+ * first frame. The file holds the components and labels of the slots, followed by one
+ * PNG strip with the pre-scaled icons of all slots, so reading it is one small file and
+ * one decode.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class DockSnapshot {
+
+    /** The version of the file format. */
+    private static final int VERSION = 1;
+    /** The PNG quality, ignored by the lossless format. */
+    private static final int PNG_QUALITY = 100;
+
+    /** The applications by slot. */
+    private final SparseArray<ApplicationModel> applications;
+    /** The strip with the icons of all slots, <code>null</code> if it has not been rendered. */
+    private final Bitmap strip;
+    /** The size of an icon in pixels. */
+    private final int iconSize;
+
+    /**
+     * Create a new snapshot.
+     * @param applications the applications by slot
+     * @param strip the strip with the icons, or <code>null</code>
+     * @param iconSize the size of an icon in pixels
+     */
+    private DockSnapshot(final SparseArray<ApplicationModel> applications, final Bitmap strip, final int iconSize) {
+        this.applications = applications;
+        this.strip = strip;
+        this.iconSize = iconSize;
+    }
+
+    /**
+     *
+     * @return the applications by slot, empty slots are missing
+     */
+    public SparseArray<ApplicationModel> getApplications() {
+        return applications;
+    }
+
+    /**
+     * Read a snapshot.
+     * @param file the file
+     * @param resources the resources for the icons
+     * @param iconSize the current size of an icon in pixels
+     * @return the snapshot, or <code>null</code>, if there is none or it does not fit
+     */
+    public static DockSnapshot read(final File file, final Resources resources, final int iconSize) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new AtomicFile(file).openRead()))) {
+            if (in.readInt() != VERSION || in.readInt() != iconSize) {
+                return null;
+            }
+
+            final int count = in.readInt();
+            final int[] slots = new int[count];
+            final ApplicationModel[] applicationModels = new ApplicationModel[count];
+            for (int i = 0; i < count; i++) {
+                slots[i] = in.readInt();
+
+                final ApplicationModel applicationModel = new ApplicationModel();
+                applicationModel.packageName = in.readUTF();
+                applicationModel.className = in.readUTF();
+                applicationModel.label = in.readUTF();
+                applicationModels[i] = applicationModel;
+            }
+
+            final SparseArray<ApplicationModel> applications = new SparseArray<>(count);
+            if (count > 0) {
+                final Bitmap strip = BitmapFactory.decodeStream(in);
+                if (strip == null || strip.getWidth() != count * iconSize || strip.getHeight() != iconSize) {
+                    return null;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    applicationModels[i].icon = new BitmapDrawable(resources,
+                            Bitmap.createBitmap(strip, i * iconSize, 0, iconSize, iconSize));
+                    applications.put(slots[i], applicationModels[i]);
+                }
+            }
+
+            return new DockSnapshot(applications, null, iconSize);
+        } catch (final IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Capture a snapshot of the dock. This has to be called from the main thread, as
+     * the icons are shared with the views.
+     * @param applications the applications by slot
+     * @param iconSize the size of an icon in pixels
+     * @return the snapshot
+     */
+    public static DockSnapshot capture(final SparseArray<ApplicationModel> applications, final int iconSize) {
+        final int count = applications.size();
+
+        final Bitmap strip = count == 0 ? null : Bitmap.createBitmap(count * iconSize, iconSize, Bitmap.Config.ARGB_8888);
+        if (strip != null) {
+            final Canvas canvas = new Canvas(strip);
+            for (int i = 0; i < count; i++) {
+                final Drawable icon = applications.valueAt(i).icon;
+                if (icon != null) {
+                    final Rect oldBounds = icon.copyBounds();
+                    icon.setBounds(i * iconSize, 0, (i + 1) * iconSize, iconSize);
+                    icon.draw(canvas);
+                    icon.setBounds(oldBounds);
+                }
+            }
+            canvas.setBitmap(null);
+        }
+
+        return new DockSnapshot(applications, strip, iconSize);
+    }
+
+    /**
+     * Write a captured snapshot. This has to be called from an async task.
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(final File file) throws IOException {
+        final int count = applications.size();
+
+        final AtomicFile atomicFile = new AtomicFile(file);
+        final FileOutputStream stream = atomicFile.startWrite();
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            out.writeInt(iconSize);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                final ApplicationModel applicationModel = applications.valueAt(i);
+                out.writeInt(applications.keyAt(i));
+                out.writeUTF(applicationModel.packageName);
+                out.writeUTF(applicationModel.className);
+                out.writeUTF(applicationModel.label);
+            }
+            if (strip != null) {
+                strip.compress(Bitmap.CompressFormat.PNG, PNG_QUALITY, out);
+            }
+            out.flush();
+
+            atomicFile.finishWrite(stream);
+        } catch (final IOException | RuntimeException e) {
+            atomicFile.failWrite(stream);
+            throw e;
+        }
+    }
+}
@@ -17,8 +17,6 @@
 
 package de.clemensbartz.android.launcher.models;
 
-import android.widget.ImageView;
-
 /**
  * Model for updating the dock asynchronously.
  *
@@ -26,30 +24,30 @@ import android.widget.ImageView;
  * @since 1.0
  */
 public final class DockUpdateModel {
-    /** The image view. */
-    private final ImageView imageView;
+    /** The slot in the dock. */
+    private final int slot;
     /** The application model. */
     private final ApplicationModel applicationModel;
 
     /**
-     * Create a new dock update model for an image view and an
+     * Create a new dock update model for a dock slot and an
      * application model.
-     * @param imageView the image view
+     * @param slot the slot in the dock
      * @param applicationModel the application model
      */
     public DockUpdateModel(
-            final ImageView imageView,
+            final int slot,
             final ApplicationModel applicationModel) {
-        this.imageView = imageView;
+        this.slot = slot;
         this.applicationModel = applicationModel;
     }
 
     /**
      *
-     * @return the image view
+     * @return the slot in the dock
      */
-    public ImageView getImageView() {
-        return imageView;
+    public int getSlot() {
+        return slot;
     }
 
     /**
@@ -20,35 +20,45 @@ package de.clemensbartz.android.launcher.models;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
-import android.graphics.drawable.Drawable;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.clemensbartz.android.launcher.Launcher;
+import de.clemensbartz.android.launcher.core.Ranking;
+import de.clemensbartz.android.launcher.core.UsageEntry;
 import de.clemensbartz.android.launcher.db.ApplicationUsageDbHelper;
 import de.clemensbartz.android.launcher.db.ApplicationUsageModel;
+import de.clemensbartz.android.launcher.db.MonitoredDatabase;
+import de.clemensbartz.android.launcher.util.IconFactory;
+import de.clemensbartz.android.launcher.util.Metrics;
 
 /**
  * Model class for HomeActivity.
+ * <p/>
+ * The model may be used from several async tasks at once. Methods changing the
+ * usage table are serialized on the model, while the most used applications are
+ * published as immutable snapshots and can be read without locking. The usage
+ * table is held in memory and written through on every change.
  *
  * @author Clemens Bartz
  * @since 1.0
  */
 public final class HomeModel {
 
-    /** The total cached number of apps. */
-    public static final int NUMBER_OF_APPS = 6;
-    /** Constant for descending sorting. */
-    private static final String SPACE_DESC = " DESC";
+    /** The default number of cached apps. */
+    public static final int DEFAULT_NUMBER_OF_APPS = 6;
     /** Columns of ApplicationUsage. */
     private static final String[] COLUMNS = {
             ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_PACKAGE_NAME,
@@ -57,53 +67,57 @@ public final class HomeModel {
             ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED,
             ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY
     };
-    /** Order by sticky DESC, usage DESC, package name DESC, class name DESC constant. */
-    private static final String ORDER_BY =
-            ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY
-                    + SPACE_DESC
-            + ", "
-            + ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_USAGE
-                    + SPACE_DESC
-            + ", "
-            + ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_PACKAGE_NAME
-                    + SPACE_DESC
-            + ", "
-            + ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_CLASS_NAME
-                    + SPACE_DESC;
+    /** Timer of updates of the most used applications. */
+    private static final Metrics.Timer DOCK_REFRESH = Metrics.getInstance().timer("dock.refresh");
+    /** Counter of dock applications found in the catalog. */
+    private static final Metrics.Counter CATALOG_HITS = Metrics.getInstance().counter("dock.catalog.hit");
+    /** Counter of dock applications loaded from the package manager. */
+    private static final Metrics.Counter CATALOG_MISSES = Metrics.getInstance().counter("dock.catalog.miss");
+    /** Estimated bytes of a usage entry and its map entry without strings. */
+    private static final int USAGE_ENTRY_OVERHEAD = 96;
     /** Filter for package name and class name constant. */
     private static final String SELECTION =
             ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_PACKAGE_NAME
                     + "=? AND "
             + ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_CLASS_NAME
                     + "=?";
-    /** Where statement for getting only enabled applications. */
-    private static final String WHERE =
-            ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED
-                    + "=0 AND ("
-            + ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_USAGE
-                    + ">0 OR "
-            + ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY
-                    + ">0)";
 
     /** Database helper. */
-    private final SQLiteOpenHelper dbHelper;
+    private final ApplicationUsageDbHelper dbHelper;
     /** Package manager. */
     private final PackageManager pm;
-    /** The ic_launcher. */
-    private final Drawable ic_launcher;
+    /** The factory for icons of the dock and the drawer. */
+    private final IconFactory iconFactory;
 
     /** Preferences value. */
     private final SharedPreferences preferences;
 
-    /** Cache for most used applications. */
-    private final List<ApplicationModel> mostUsedApplications =
-            new ArrayList<>(NUMBER_OF_APPS);
+    /** The catalog of installed applications. */
+    private final ApplicationCatalog catalog = new ApplicationCatalog();
+
+    /**
+     * In-memory copy of the usage table keyed by component, <code>null</code> if it has
+     * not been loaded. All reads are served from here; changes are applied here first and
+     * written through afterwards. Releasing it publishes <code>null</code> instead of
+     * clearing it, so that readers holding the map keep a consistent copy.
+     */
+    private volatile Map<ComponentName, UsageEntry> usage;
+
+    /** The number of cached apps. */
+    private volatile int numberOfApps = DEFAULT_NUMBER_OF_APPS;
+
+    /**
+     * Immutable snapshot of the most used applications. Writers build a new list
+     * and swap the reference, so readers never see a partially filled list.
+     */
+    private volatile List<ApplicationModel> mostUsedApplications =
+            Collections.emptyList();
 
-    /** Writable SQLiteDatabase. */
-    private SQLiteDatabase writableDatabase;
+    /** Writable database. */
+    private volatile MonitoredDatabase writableDatabase;
 
     /** The instance in during application life cycle. */
-    private static HomeModel instance;
+    private static volatile HomeModel instance;
 
     /** Key for the appWidgetId property. */
     private static final String KEY_APPWIDGET_ID = "appWidgetId";
@@ -112,11 +126,16 @@ public final class HomeModel {
     //private static final String KEY_HIDE_OVERLAY_ID = "hideOverlay";
     /** Key for the appWidgetLayout property. */
     private static final String KEY_APPWIDGET_LAYOUT = "appWidgetLayout";
+    /** Key for the time of the last garbage collection. */
+    private static final String KEY_LAST_GARBAGE_COLLECTION = "lastGarbageCollection";
+
+    /** Interval for the periodic garbage collection of the usage table in milliseconds. */
+    public static final long GARBAGE_COLLECTION_INTERVAL = 24 * 60 * 60 * 1000L;
 
     /** Value for the appWidgetId property. */
-    private int appWidgetId = -1;
+    private volatile int appWidgetId = -1;
     /** Value for the appWidgetLayout property. */
-    private int appWidgetLayout = Launcher.WIDGET_LAYOUT_FULL_SCREEN;
+    private volatile int appWidgetLayout = Launcher.WIDGET_LAYOUT_FULL_SCREEN;
 
     /**
      *
@@ -124,13 +143,42 @@ public final class HomeModel {
      * @return the instance of the home model.
      */
     public static HomeModel getInstance(final Launcher activity) {
-        if (instance == null) {
-            instance = new HomeModel(activity);
+        HomeModel result = instance;
+
+        if (result == null) {
+            synchronized (HomeModel.class) {
+                result = instance;
+                if (result == null) {
+                    result = new HomeModel(activity);
+                    instance = result;
+                }
+            }
         }
 
+        return result;
+    }
+
+    /**
+     *
+     * @return the instance of the home model, or <code>null</code>, if no launcher has created it yet
+     */
+    public static HomeModel getExistingInstance() {
         return instance;
     }
 
+    /**
+     * Replace the instance of the process. Only for tests, which have to restore the
+     * previous instance afterwards.
+     * @param model the new instance, or <code>null</code> to create one on the next lookup
+     * @return the previous instance
+     */
+    static synchronized HomeModel setInstance(final HomeModel model) {
+        final HomeModel previous = instance;
+        instance = model;
+
+        return previous;
+    }
+
     /**
      * Create a pair of content values for a package, a package, the usage, if it is disabled
      * or sticky.
@@ -165,19 +213,33 @@ public final class HomeModel {
      * @param context the context
      */
     private HomeModel(final Launcher context) {
+        this(context, ApplicationUsageDbHelper.getInstance(context));
+    }
+
+    /**
+     * Create a new model on a given database. Tests use this for a separate database.
+     * @param context the context
+     * @param dbHelper the helper for the usage database
+     */
+    HomeModel(final Launcher context, final ApplicationUsageDbHelper dbHelper) {
         preferences = context.getPreferences(Context.MODE_PRIVATE);
-        dbHelper = ApplicationUsageDbHelper.getInstance(context);
+        this.dbHelper = dbHelper;
         pm = context.getApplicationContext().getPackageManager();
-        ic_launcher = context.ic_launcher;
+        iconFactory = new IconFactory(context.getApplicationContext().getResources(), context.ic_launcher);
+
+        // The model lives as long as the process, so its gauges are never removed.
+        catalog.registerGauges(this);
+        iconFactory.registerGauges(this);
     }
 
     /**
-     * Get a database for a mode.
-     * @return the database or a readable database for unsupported modes
+     * Get the database. Writes must use non-exclusive transactions and reads must
+     * not use transactions at all, so that both can run in parallel.
+     * @return the database
      */
-    private SQLiteDatabase getDatabase() {
+    private MonitoredDatabase getDatabase() {
         if (writableDatabase == null || !(writableDatabase.isOpen())) {
-            writableDatabase = dbHelper.getWritableDatabase();
+            writableDatabase = dbHelper.getDatabase();
         }
 
         return writableDatabase;
@@ -187,6 +249,7 @@ public final class HomeModel {
      * Load preference values.
      */
     public void loadValues() {
+        loadUsage();
         updateApplications();
 
         appWidgetId = preferences.getInt(KEY_APPWIDGET_ID, -1);
@@ -194,6 +257,8 @@ public final class HomeModel {
     }
 
     /**
+     * Get the most used applications. The returned list is an immutable snapshot
+     * and may be iterated from any thread.
      *
      * @return the list of most used applications
      */
@@ -202,34 +267,187 @@ public final class HomeModel {
     }
 
     /**
-     * Convert an object to string.
-     * @param object the object
-     * @return a string or <code>null</code>, if the object could not be converted to a string
+     *
+     * @return the factory for icons of the dock and the drawer
      */
-    private String convertToString(final Object object) {
-        if (object instanceof String) {
-            return (String) object;
-        } else {
-            return null;
+    public IconFactory getIconFactory() {
+        return iconFactory;
+    }
+
+    /**
+     *
+     * @return the catalog of installed applications
+     */
+    public ApplicationCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     *
+     * @return the number of cached apps
+     */
+    public int getNumberOfApps() {
+        return numberOfApps;
+    }
+
+    /**
+     * Set the number of cached apps, usually the slot count of the dock.
+     * @param numberOfApps the number of apps
+     */
+    public void setNumberOfApps(final int numberOfApps) {
+        this.numberOfApps = numberOfApps;
+    }
+
+    /**
+     * Load the whole usage table into memory, if this has not happened yet.
+     * Duplicate rows for a component are merged and rewritten as one row.
+     * @return the in-memory copy of the usage table
+     */
+    private Map<ComponentName, UsageEntry> loadUsage() {
+        final Map<ComponentName, UsageEntry> currentUsage = usage;
+        if (currentUsage != null) {
+            return currentUsage;
+        }
+
+        synchronized (this) {
+            if (usage != null) {
+                return usage;
+            }
+
+            final Map<ComponentName, UsageEntry> loadedUsage = new ConcurrentHashMap<>();
+            final MonitoredDatabase db = getDatabase();
+            final List<UsageEntry> duplicates = new ArrayList<>(0);
+
+            Cursor c = null;
+            try {
+                c = db.query(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
+                        COLUMNS, null, null, null, null, null);
+
+                if (c != null) {
+                    final int packageNameIndex = c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_PACKAGE_NAME);
+                    final int classNameIndex = c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_CLASS_NAME);
+                    final int usageIndex = c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_USAGE);
+                    final int disabledIndex = c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED);
+                    final int stickyIndex = c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY);
+
+                    for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                        final String packageName = c.getString(packageNameIndex);
+                        final String className = c.getString(classNameIndex);
+
+                        if (packageName == null || className == null) {
+                            continue;
+                        }
+
+                        final UsageEntry entry = new UsageEntry(packageName, className,
+                                c.getInt(usageIndex),
+                                c.getInt(disabledIndex) > 0,
+                                c.getInt(stickyIndex) > 0);
+                        final ComponentName key = new ComponentName(packageName, className);
+                        final UsageEntry existing = loadedUsage.get(key);
+
+                        if (existing == null) {
+                            loadedUsage.put(key, entry);
+                        } else {
+                            final UsageEntry merged = existing.merge(entry);
+                            loadedUsage.put(key, merged);
+                            duplicates.add(merged);
+                        }
+                    }
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+
+            if (!duplicates.isEmpty()) {
+                db.beginTransactionNonExclusive();
+                try {
+                    for (int i = 0, size = duplicates.size(); i < size; i++) {
+                        final UsageEntry entry = duplicates.get(i);
+                        deleteRows(entry.getPackageName(), entry.getClassName());
+                        persist(loadedUsage.get(new ComponentName(entry.getPackageName(), entry.getClassName())));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
+            usage = loadedUsage;
+
+            return loadedUsage;
         }
     }
 
     /**
-     * Get the application model.
-     * @param contentValue the content values
-     * @return an application model, or <code>null</code>, if no application was found
+     * Write an entry to the database. The entry is updated in place, or inserted
+     * if the component has no row yet.
+     * @param entry the entry
      */
-    private ApplicationModel getApplicationModel(final ContentValues contentValue) {
-        final String packageName = convertToString(contentValue.get(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_PACKAGE_NAME));
-        final String className = convertToString(contentValue.get(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_CLASS_NAME));
+    private void persist(final UsageEntry entry) {
+        final MonitoredDatabase db = getDatabase();
+        final String[] selectionArgs = new String[]{entry.getPackageName(), entry.getClassName()};
+        final ContentValues values = createContentValues(entry.getPackageName(), entry.getClassName(),
+                entry.getUsage(), entry.isDisabled(), entry.isSticky());
 
-        // Report back if one of them is null
-        if (packageName == null || className == null) {
-            return null;
+        db.beginTransactionNonExclusive();
+        try {
+            final int rows = db.update(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
+                    values, SELECTION, selectionArgs);
+            if (rows == 0) {
+                db.insertOrThrow(ApplicationUsageModel.ApplicationUsage.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+    }
 
-        final boolean disabled = contentValue.getAsBoolean(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED);
-        final boolean sticky = contentValue.getAsBoolean(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY);
+    /**
+     * Get the usage entry of a component from memory.
+     * @param packageName the package name
+     * @param className the class name
+     * @return the entry or <code>null</code>, if there is none
+     */
+    private UsageEntry getUsageEntry(final String packageName, final String className) {
+        return loadUsage().get(new ComponentName(packageName, className));
+    }
+
+    /**
+     * Change the entry of a component in memory first, and persist it afterwards.
+     * Must hold the model.
+     * @param entry the new entry
+     */
+    private void putUsageEntry(final UsageEntry entry) {
+        loadUsage().put(new ComponentName(entry.getPackageName(), entry.getClassName()), entry);
+        persist(entry);
+    }
+
+    /**
+     * Get the application model from the catalog, or from the package manager if
+     * the catalog does not know the application.
+     * @param entry the usage entry
+     * @return an application model, or <code>null</code>, if no application was found
+     */
+    private ApplicationModel getApplicationModel(final UsageEntry entry) {
+        final String packageName = entry.getPackageName();
+        final String className = entry.getClassName();
+        final boolean disabled = entry.isDisabled();
+        final boolean sticky = entry.isSticky();
+
+        // Models with a released icon are loaded again. The model is a copy for the dock,
+        // the flags in the catalog stay as scanned.
+        final ApplicationModel cachedModel = catalog.get(packageName, className);
+        if (cachedModel != null && cachedModel.icon != null) {
+            cachedModel.disabled = disabled;
+            cachedModel.sticky = sticky;
+            CATALOG_HITS.increment();
+
+            return cachedModel;
+        }
+
+        CATALOG_MISSES.increment();
 
         try {
             final ComponentName componentName = new ComponentName(packageName, className);
@@ -252,13 +470,15 @@ public final class HomeModel {
                 applicationModel.label = "";
             }
 
-            applicationModel.icon = info.loadIcon(pm);
-
-            // Check for when icon can become null (e. g. on Huawei Nexus 6p angler).
+            final String iconKey = IconFactory.getIconKey(info);
+            applicationModel.icon = iconFactory.getIcon(iconKey);
             if (applicationModel.icon == null) {
-                applicationModel.icon = ic_launcher;
+                // The icon can become null (e. g. on Huawei Nexus 6p angler), the factory falls back then.
+                applicationModel.icon = iconFactory.createIcon(iconKey, info.loadIcon(pm));
             }
 
+            catalog.put(applicationModel);
+
             return applicationModel;
         } catch (final PackageManager.NameNotFoundException e) {
             return null;
@@ -270,54 +490,119 @@ public final class HomeModel {
      * <p/>
      * This method has to be called from an async task.
      */
-    public void updateApplications() {
-        final Map<String, String> applicationsToBeDeleted = new HashMap<>();
+    public synchronized void updateApplications() {
+        final long start = Metrics.Timer.start();
+        final List<UsageEntry> applicationsToBeDeleted = new ArrayList<>(0);
+        final List<ApplicationModel> applications = new ArrayList<>(numberOfApps);
 
-        final SQLiteDatabase db = getDatabase();
+        final Map<ComponentName, UsageEntry> currentUsage = loadUsage();
 
-        mostUsedApplications.clear();
+        // Rank candidates in memory, only the best ones are selected
+        int limit = numberOfApps;
+        List<UsageEntry> candidates = Ranking.top(currentUsage.values(), limit);
 
-        Cursor c = null;
-        try {
-            c = db.query(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                    COLUMNS, WHERE, null, null, null,
-                    ORDER_BY, Integer.toString(NUMBER_OF_APPS));
-
-            if (c != null) {
-                for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                    String packageName;
-                    String className;
-                    ContentValues contentValue;
-                    try {
-                        packageName = c.getString(c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_PACKAGE_NAME));
-                        className = c.getString(c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_CLASS_NAME));
-                        boolean disabled = c.getInt(c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED)) > 0;
-                        boolean sticky = c.getInt(c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY)) > 0;
-
-                        contentValue = createContentValues(packageName, className, null, disabled, sticky);
-                    } catch (IllegalArgumentException e) {
-                        continue;
-                    }
+        // Skip applications that are gone, so that every slot gets filled
+        for (int i = 0; i < candidates.size() && applications.size() < numberOfApps; i++) {
+            final UsageEntry entry = candidates.get(i);
 
-                    final ApplicationModel applicationModel = getApplicationModel(contentValue);
-                    if (applicationModel == null) {
-                        applicationsToBeDeleted.put(packageName, className);
-                        break;
-                    } else {
-                        mostUsedApplications.add(applicationModel);
-                    }
-                }
+            // Select more candidates if the gone ones used up the selection, the order stays the same.
+            if (i == limit - 1 && candidates.size() == limit) {
+                limit *= 2;
+                candidates = Ranking.top(currentUsage.values(), limit);
             }
-        } finally {
-            if (c != null) {
-                c.close();
+
+            final ApplicationModel applicationModel = getApplicationModel(entry);
+            if (applicationModel == null) {
+                applicationsToBeDeleted.add(entry);
+            } else {
+                applications.add(applicationModel);
             }
         }
 
+        // Publish the new snapshot
+        mostUsedApplications = Collections.unmodifiableList(applications);
+
         // Delete old applications
-        for (Map.Entry<String, String> entry : applicationsToBeDeleted.entrySet()) {
-            delete(entry.getKey(), entry.getValue());
+        if (!applicationsToBeDeleted.isEmpty()) {
+            deleteAll(applicationsToBeDeleted);
+        }
+
+        DOCK_REFRESH.recordSince(start);
+    }
+
+    /**
+     * Release the in-memory copy of the usage table. It is loaded from the database
+     * again on the next access. The snapshot of the most used applications is kept.
+     * @return the estimated number of bytes released
+     */
+    public synchronized long releaseUsage() {
+        final Map<ComponentName, UsageEntry> releasedUsage = usage;
+        if (releasedUsage == null) {
+            return 0;
+        }
+
+        // Readers may still hold the map, so it is dropped instead of cleared.
+        usage = null;
+
+        long bytes = 0;
+        for (UsageEntry entry : releasedUsage.values()) {
+            bytes += USAGE_ENTRY_OVERHEAD + 2 * (entry.getPackageName().length() + entry.getClassName().length());
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Check if the periodic garbage collection is due.
+     * @return <code>true</code>, if the last garbage collection is older than {@link #GARBAGE_COLLECTION_INTERVAL}
+     */
+    public boolean isGarbageCollectionDue() {
+        final long lastGarbageCollection = preferences.getLong(KEY_LAST_GARBAGE_COLLECTION, 0);
+
+        return Math.abs(System.currentTimeMillis() - lastGarbageCollection) >= GARBAGE_COLLECTION_INTERVAL;
+    }
+
+    /**
+     * Reconcile the usage table with the installed launcher activities and delete
+     * all entries of activities that no longer exist in one transaction.
+     * <p/>
+     * This method has to be called from an async task.
+     * @return the number of deleted entries
+     */
+    public synchronized int collectGarbage() {
+        final Map<ComponentName, UsageEntry> currentUsage = loadUsage();
+
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+
+        final List<ResolveInfo> resolveInfoList = pm.queryIntentActivities(intent, 0);
+
+        // Do not wipe the table, if the package manager is not ready.
+        if (resolveInfoList.isEmpty()) {
+            return 0;
         }
+
+        final Set<ComponentName> installed = new HashSet<>(resolveInfoList.size() * 2);
+        for (int i = 0, size = resolveInfoList.size(); i < size; i++) {
+            final ResolveInfo resolveInfo = resolveInfoList.get(i);
+            installed.add(new ComponentName(resolveInfo.activityInfo.packageName, resolveInfo.activityInfo.name));
+        }
+
+        final List<UsageEntry> stale = new ArrayList<>(0);
+        for (UsageEntry entry : currentUsage.values()) {
+            if (!installed.contains(new ComponentName(entry.getPackageName(), entry.getClassName()))) {
+                stale.add(entry);
+            }
+        }
+
+        if (!stale.isEmpty()) {
+            deleteAll(stale);
+            updateApplications();
+        }
+
+        preferences.edit().putLong(KEY_LAST_GARBAGE_COLLECTION, System.currentTimeMillis()).apply();
+
+        return stale.size();
     }
 
     /**
@@ -325,49 +610,18 @@ public final class HomeModel {
      * @param packageName the package name
      * @param className the class name
      */
-    public void toggleSticky(final String packageName, final String className) {
+    public synchronized void toggleSticky(final String packageName, final String className) {
         // Check for deletion
         if (canBeDeleted(packageName, className)) {
             return;
         }
 
-        final SQLiteDatabase db = getDatabase();
-
-        db.beginTransaction();
-        Cursor c = null;
-        try {
-            // Get entry
-            c = db.query(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                    new String[]{
-                            ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY
-                    },
-                    SELECTION, new String[]{packageName, className},
-                    null, null, null);
-            if (c != null) {
-                if (c.getCount() > 1) {
-                    delete(packageName, className);
-                }
-                if (c.moveToFirst()) {
-                    final boolean sticky = c.getInt(c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY)) > 0;
-                    // update
-                    final ContentValues values = createContentValues(packageName, className, null, null, !sticky);
-
-                    db.update(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                            values, SELECTION, new String[]{packageName, className});
-                    db.setTransactionSuccessful();
-                } else {
-                    // insert
-                    final ContentValues values = createContentValues(packageName, className, 0, false, true);
+        final UsageEntry entry = getUsageEntry(packageName, className);
 
-                    db.insertOrThrow(ApplicationUsageModel.ApplicationUsage.TABLE_NAME, null, values);
-                    db.setTransactionSuccessful();
-                }
-            }
-        } finally {
-            db.endTransaction();
-            if (c != null) {
-                c.close();
-            }
+        if (entry == null) {
+            putUsageEntry(new UsageEntry(packageName, className, 0, false, true));
+        } else {
+            putUsageEntry(entry.withSticky(!entry.isSticky()));
         }
     }
 
@@ -376,49 +630,18 @@ public final class HomeModel {
      * @param packageName the package name
      * @param className the class name
      */
-    public void toggleDisabled(final String packageName, final String className) {
+    public synchronized void toggleDisabled(final String packageName, final String className) {
         // Check for deletion
         if (canBeDeleted(packageName, className)) {
             return;
         }
 
-        final SQLiteDatabase db = getDatabase();
+        final UsageEntry entry = getUsageEntry(packageName, className);
 
-        db.beginTransaction();
-        Cursor c = null;
-        try {
-            // Get entry
-            c = db.query(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                    new String[]{
-                            ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED
-                    },
-                    SELECTION, new String[]{packageName, className},
-                    null, null, null);
-            if (c != null) {
-                if (c.getCount() > 1) {
-                    delete(packageName, className);
-                }
-                if (c.moveToFirst()) {
-                    final boolean disabled = c.getInt(c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED)) > 0;
-                    // update
-                    final ContentValues values = createContentValues(packageName, className, null, !disabled, null);
-
-                    db.update(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                            values, SELECTION, new String[]{packageName, className});
-                    db.setTransactionSuccessful();
-                } else {
-                    // insert
-                    final ContentValues values = createContentValues(packageName, className, 0, true, false);
-
-                    db.insertOrThrow(ApplicationUsageModel.ApplicationUsage.TABLE_NAME, null, values);
-                    db.setTransactionSuccessful();
-                }
-            }
-        } finally {
-            db.endTransaction();
-            if (c != null) {
-                c.close();
-            }
+        if (entry == null) {
+            putUsageEntry(new UsageEntry(packageName, className, 0, true, false));
+        } else {
+            putUsageEntry(entry.withDisabled(!entry.isDisabled()));
         }
     }
 
@@ -429,7 +652,13 @@ public final class HomeModel {
      * @return if the application is sticky
      */
     public boolean isSticky(final String packageName, final String className) {
-        return isField(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_STICKY, packageName, className);
+        if (canBeDeleted(packageName, className)) {
+            return false;
+        }
+
+        final UsageEntry entry = getUsageEntry(packageName, className);
+
+        return entry != null && entry.isSticky();
     }
 
     /**
@@ -439,56 +668,13 @@ public final class HomeModel {
      * @return if the application is disabled
      */
     public boolean isDisabled(final String packageName, final String className) {
-        return isField(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_DISABLED, packageName, className);
-    }
-
-    /**
-     * Check if value of column is true.
-     * @param columnName which column in the table
-     * @param packageName the package name
-     * @param className the class name
-     * @return <code>true</code>, defaults to <code>false</code>
-     */
-    private boolean isField(final String columnName, final String packageName, final String className) {
-        // Check for deletion
         if (canBeDeleted(packageName, className)) {
             return false;
         }
 
-        // Get the database
-        final SQLiteDatabase db = getDatabase();
-
-        // Default value is false
-        boolean is = false;
-
-        db.beginTransaction();
-        Cursor c = null;
-        try {
-            // Get entry
-            c = db.query(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                    new String[]{
-                            columnName
-                    },
-                    SELECTION, new String[]{packageName, className},
-                    null, null, null);
-            if (c != null) {
-                // Entry could not be found, delete all remaining entries
-                if (c.getCount() > 1) {
-                    delete(packageName, className);
-                }
-                // Get first value
-                if (c.moveToFirst()) {
-                    is = c.getInt(c.getColumnIndexOrThrow(columnName)) > 0;
-                }
-            }
-        } finally {
-            db.endTransaction();
-            if (c != null) {
-                c.close();
-            }
-        }
+        final UsageEntry entry = getUsageEntry(packageName, className);
 
-        return is;
+        return entry != null && entry.isDisabled();
     }
 
     /**
@@ -496,43 +682,18 @@ public final class HomeModel {
      * @param packageName the package name
      * @param className the class name
      */
-    public void resetUsage(final String packageName, final String className) {
-        final SQLiteDatabase db = getDatabase();
+    public synchronized void resetUsage(final String packageName, final String className) {
+        // Check for deletion
+        if (canBeDeleted(packageName, className)) {
+            return;
+        }
 
-        db.beginTransaction();
-        Cursor c = null;
-        try {
-            // Get entry
-            c = db.query(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                    new String[]{
-                            ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_USAGE
-                    },
-                    SELECTION, new String[]{packageName, className},
-                    null, null, null);
-            if (c != null) {
-                if (c.getCount() > 1) {
-                    delete(packageName, className);
-                }
-                if (c.moveToFirst()) {
-                    // update
-                    final ContentValues values = createContentValues(packageName, className, 0, null, null);
+        final UsageEntry entry = getUsageEntry(packageName, className);
 
-                    db.update(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                            values, SELECTION, new String[]{packageName, className});
-                    db.setTransactionSuccessful();
-                } else {
-                    // insert
-                    final ContentValues values = createContentValues(packageName, className, 0, false, false);
-
-                    db.insertOrThrow(ApplicationUsageModel.ApplicationUsage.TABLE_NAME, null, values);
-                    db.setTransactionSuccessful();
-                }
-            }
-        } finally {
-            db.endTransaction();
-            if (c != null) {
-                c.close();
-            }
+        if (entry == null) {
+            putUsageEntry(new UsageEntry(packageName, className, 0, false, false));
+        } else {
+            putUsageEntry(entry.withUsage(0));
         }
 
         updateApplications();
@@ -543,54 +704,20 @@ public final class HomeModel {
      * @param packageName the package name
      * @param className the class name
      */
-    public void addUsage(final String packageName, final String className) {
+    public synchronized void addUsage(final String packageName, final String className) {
         // Check for deletion
         if (canBeDeleted(packageName, className)) {
             return;
         }
 
-        final SQLiteDatabase db = getDatabase();
+        final UsageEntry entry = getUsageEntry(packageName, className);
 
-        db.beginTransaction();
-        Cursor c = null;
-        try {
-            // Get entry
-            c = db.query(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                    new String[]{
-                            ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_USAGE
-                    },
-                    SELECTION, new String[]{packageName, className},
-                    null, null, null);
-            if (c != null) {
-                if (c.getCount() > 1) {
-                    delete(packageName, className);
-                }
-                if (c.moveToFirst()) {
-                    // update
-                    final int usage = c.getInt(c.getColumnIndexOrThrow(ApplicationUsageModel.ApplicationUsage.COLUMN_NAME_USAGE));
-
-                    if (usage < Integer.MAX_VALUE) {
-                        final ContentValues values = createContentValues(packageName, className, usage + 1, null, null);
-
-                        db.update(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
-                                values, SELECTION, new String[]{packageName, className});
-                        db.setTransactionSuccessful();
-                    } else {
-                        resetUsage(packageName, className);
-                    }
-                } else {
-                    // insert
-                    final ContentValues values = createContentValues(packageName, className, 1, false, false);
-
-                    db.insertOrThrow(ApplicationUsageModel.ApplicationUsage.TABLE_NAME, null, values);
-                    db.setTransactionSuccessful();
-                }
-            }
-        } finally {
-            db.endTransaction();
-            if (c != null) {
-                c.close();
-            }
+        if (entry == null) {
+            putUsageEntry(new UsageEntry(packageName, className, 1, false, false));
+        } else if (entry.getUsage() < Integer.MAX_VALUE) {
+            putUsageEntry(entry.withUsage(entry.getUsage() + 1));
+        } else {
+            putUsageEntry(entry.withUsage(0));
         }
 
         updateApplications();
@@ -603,21 +730,42 @@ public final class HomeModel {
      * @return true if it can, otherwise false
      */
     private boolean canBeDeleted(final String packageName, final String className) {
-        if (packageName == null || className == null) {
-            delete(packageName, className);
-            return true;
-        } else {
-            return false;
+        return packageName == null || className == null;
+    }
+
+    /**
+     * Delete several entries from memory and the database in one transaction.
+     * Must hold the model.
+     * @param entries the entries to delete
+     */
+    private void deleteAll(final List<UsageEntry> entries) {
+        final Map<ComponentName, UsageEntry> currentUsage = loadUsage();
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            final UsageEntry entry = entries.get(i);
+            currentUsage.remove(new ComponentName(entry.getPackageName(), entry.getClassName()));
+        }
+
+        final MonitoredDatabase db = getDatabase();
+
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0, size = entries.size(); i < size; i++) {
+                final UsageEntry entry = entries.get(i);
+                deleteRows(entry.getPackageName(), entry.getClassName());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
     }
 
     /**
-     * Delete all entries for packageName and className.
+     * Delete all rows for packageName and className from the database.
      * @param packageName the package name
      * @param className the class name
      */
-    private void delete(final String packageName, final String className) {
-        final SQLiteDatabase db = getDatabase();
+    private void deleteRows(final String packageName, final String className) {
+        final MonitoredDatabase db = getDatabase();
         db.delete(ApplicationUsageModel.ApplicationUsage.TABLE_NAME,
                 SELECTION, new String[]{packageName, className});
     }
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.services;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.clemensbartz.android.launcher.db.ApplicationUsageDbHelper;
+import de.clemensbartz.android.launcher.models.HomeModel;
+import de.clemensbartz.android.launcher.util.Metrics;
+
+/**
+ * Job service for maintenance that should not run during interactive sessions.
+ * The job only runs while the device is idle and charging, and stops starting new
+ * steps once its time budget is used up.
+ * <p/>
+ * Steps that rewrite the database only run when they gain something: the statistics
+ * are only updated after rows have been deleted, and the file is only rebuilt when a
+ * large share of its pages is unused.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class MaintenanceJobService extends JobService {
+
+    /** The id of the maintenance job. */
+    private static final int JOB_ID = 1;
+    /** The interval of the maintenance job in milliseconds. */
+    private static final long INTERVAL = 24 * 60 * 60 * 1000L;
+    /** The time budget of one run in milliseconds. */
+    private static final long BUDGET = 60 * 1000L;
+    /** The share of unused pages above which the database file is rebuilt. */
+    private static final float VACUUM_FREE_PAGE_RATIO = 0.25f;
+
+    /** The name of the preferences for step records. */
+    private static final String PREFERENCES_NAME = "maintenance";
+    /** Suffix for the key of the last run of a step. */
+    private static final String KEY_LAST_RUN = ".lastRun";
+    /** Suffix for the key of the duration of a step. */
+    private static final String KEY_DURATION = ".duration";
+
+    /** Step for deleting usage entries of removed applications. */
+    public static final String STEP_COLLECT_GARBAGE = "collectGarbage";
+    /** Step for checkpointing the write-ahead log. */
+    public static final String STEP_CHECKPOINT = "checkpoint";
+    /** Step for updating the statistics of the query planner. */
+    public static final String STEP_ANALYZE = "analyze";
+    /** Step for rebuilding the database file. */
+    public static final String STEP_VACUUM = "vacuum";
+    /** All steps in order of execution. */
+    public static final String[] STEPS = {
+            STEP_COLLECT_GARBAGE,
+            STEP_CHECKPOINT,
+            STEP_ANALYZE,
+            STEP_VACUUM
+    };
+
+    /** The step records by preference key, cached so that gauges do not read the preferences. */
+    private static final ConcurrentMap<String, Long> RECORDS = new ConcurrentHashMap<>();
+
+    /** The currently running task. */
+    private MaintenanceAsyncTask maintenanceAsyncTask;
+
+    /**
+     * Schedule the maintenance job, if it is not scheduled yet.
+     * @param context the context
+     */
+    public static void schedule(final Context context) {
+        final JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        if (jobScheduler == null) {
+            return;
+        }
+
+        final List<JobInfo> pendingJobs = jobScheduler.getAllPendingJobs();
+        for (int i = 0, size = pendingJobs.size(); i < size; i++) {
+            if (pendingJobs.get(i).getId() == JOB_ID) {
+                return;
+            }
+        }
+
+        final JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL)
+                .setPersisted(true)
+                .build();
+
+        jobScheduler.schedule(jobInfo);
+    }
+
+    /**
+     * Register gauges for the time of the last run and the duration of each step. They
+     * show the records cached by the job in this process, the preferences are not read.
+     * @param owner the owner of the gauges, which removes them when it goes
+     */
+    public static void registerGauges(final Object owner) {
+        final Metrics metrics = Metrics.getInstance();
+        for (final String step : STEPS) {
+            metrics.setGauge(owner, "maintenance." + step + ".lastRun", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return getRecord(step + KEY_LAST_RUN, 0);
+                }
+            });
+            metrics.setGauge(owner, "maintenance." + step + ".durationMs", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return getRecord(step + KEY_DURATION, -1);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param key the preference key of the record
+     * @param defaultValue the value if there is no record
+     * @return the cached record
+     */
+    private static long getRecord(final String key, final long defaultValue) {
+        final Long value = RECORDS.get(key);
+
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @param context the context
+     * @return the preferences for step records
+     */
+    private static SharedPreferences getPreferences(final Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        maintenanceAsyncTask = new MaintenanceAsyncTask(params);
+        maintenanceAsyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        if (maintenanceAsyncTask != null) {
+            maintenanceAsyncTask.cancel(false);
+            maintenanceAsyncTask = null;
+        }
+
+        // Try again in the next window
+        return true;
+    }
+
+    /**
+     * Async task running the maintenance steps.
+     */
+    private final class MaintenanceAsyncTask extends AsyncTask<Integer, Integer, Boolean> {
+
+        /** The parameters of the job. */
+        private final JobParameters params;
+        /** The number of usage entries deleted in this run. */
+        private int deletedCount = 0;
+
+        /**
+         * Create a new task for a job.
+         * @param params the parameters of the job
+         */
+        private MaintenanceAsyncTask(final JobParameters params) {
+            this.params = params;
+        }
+
+        @Override
+        protected Boolean doInBackground(final Integer... integers) {
+            final long start = SystemClock.elapsedRealtime();
+            final SharedPreferences preferences = getPreferences(MaintenanceJobService.this);
+            final SharedPreferences.Editor editor = preferences.edit();
+
+            // Records of earlier processes, steps skipped in this run keep them.
+            for (String step : STEPS) {
+                cacheRecord(preferences, step + KEY_LAST_RUN);
+                cacheRecord(preferences, step + KEY_DURATION);
+            }
+
+            boolean finished = true;
+            for (String step : STEPS) {
+                if (isCancelled() || SystemClock.elapsedRealtime() - start > BUDGET) {
+                    finished = false;
+                    break;
+                }
+
+                final long stepStart = SystemClock.elapsedRealtime();
+                if (runStep(step)) {
+                    record(editor, step + KEY_LAST_RUN, System.currentTimeMillis());
+                    record(editor, step + KEY_DURATION, SystemClock.elapsedRealtime() - stepStart);
+                }
+            }
+
+            editor.apply();
+
+            return finished;
+        }
+
+        /**
+         * Cache a stored record, unless this process has a newer one.
+         * @param preferences the preferences
+         * @param key the key of the record
+         */
+        private void cacheRecord(final SharedPreferences preferences, final String key) {
+            if (preferences.contains(key)) {
+                RECORDS.putIfAbsent(key, preferences.getLong(key, 0));
+            }
+        }
+
+        /**
+         * Store a record and cache it.
+         * @param editor the editor of the preferences
+         * @param key the key of the record
+         * @param value the value
+         */
+        private void record(final SharedPreferences.Editor editor, final String key, final long value) {
+            editor.putLong(key, value);
+            RECORDS.put(key, value);
+        }
+
+        /**
+         * Run a single step.
+         * @param step the step
+         * @return <code>true</code>, if the step ran, <code>false</code> if it was skipped
+         */
+        private boolean runStep(final String step) {
+            final ApplicationUsageDbHelper dbHelper = ApplicationUsageDbHelper.getInstance(MaintenanceJobService.this);
+
+            switch (step) {
+                case STEP_COLLECT_GARBAGE:
+                    // Entries are held in memory by the model, so only use it if it exists.
+                    final HomeModel model = HomeModel.getExistingInstance();
+                    if (model == null) {
+                        return false;
+                    }
+                    deletedCount = model.collectGarbage();
+                    return true;
+                case STEP_CHECKPOINT:
+                    dbHelper.checkpoint();
+                    return true;
+                case STEP_ANALYZE:
+                    // The statistics only change when rows are removed in bulk.
+                    if (deletedCount == 0) {
+                        return false;
+                    }
+                    dbHelper.analyze();
+                    return true;
+                case STEP_VACUUM:
+                    // Rebuilding rewrites the whole file, only do it if much of it is unused.
+                    if (dbHelper.getFreePageRatio() <= VACUUM_FREE_PAGE_RATIO) {
+                        return false;
+                    }
+                    dbHelper.vacuum();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(final Boolean finished) {
+            maintenanceAsyncTask = null;
+            jobFinished(params, !finished);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.util;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Utility class for measuring drawables.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class DrawableUtil {
+
+    /** Bytes per pixel of an ARGB_8888 bitmap. */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Hidden constructor.
+     */
+    private DrawableUtil() {
+        // Hidden constructor
+    }
+
+    /**
+     * Get the number of bytes a drawable holds in memory. For bitmaps this is the
+     * allocation, for other drawables it is estimated from the intrinsic size.
+     *
+     * @param drawable the drawable, can be <code>null</code>
+     * @return the number of bytes
+     */
+    public static long getByteCount(final Drawable drawable) {
+        if (drawable == null) {
+            return 0;
+        }
+
+        if (drawable instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+
+            return bitmap != null ? bitmap.getAllocationByteCount() : 0;
+        }
+
+        return (long) Math.max(0, drawable.getIntrinsicWidth()) * Math.max(0, drawable.getIntrinsicHeight()) * BYTES_PER_PIXEL;
+    }
+}
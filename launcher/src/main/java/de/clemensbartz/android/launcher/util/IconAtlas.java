@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2017  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Atlas of square icons of one size. Icons are packed into a few large page bitmaps
+ * instead of one bitmap per icon, so that the drawer uploads a handful of textures
+ * instead of hundreds. Slots of released icons are reused by the next icons, so the
+ * atlas is built incrementally as packages change.
+ * <p/>
+ * Icons are drawn into a private buffer on any thread and copied into their page on the
+ * main thread, so that pages are never written while they are drawn or uploaded. Until
+ * then, a region draws its buffer. Released slots are only reused after
+ * {@link #reclaim()}, which the caller runs once no view can show the released regions
+ * anymore. Allocation may happen on any thread, release and reclaim on the main thread.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class IconAtlas {
+
+    /** The number of slots per row and column of a page. */
+    private static final int SLOTS_PER_SIDE = 8;
+    /** The number of slots of a page. */
+    private static final int SLOTS_PER_PAGE = SLOTS_PER_SIDE * SLOTS_PER_SIDE;
+
+    /** Bytes per pixel of the pages. */
+    private static final int BYTES_PER_PIXEL = 4;
+    /** The maximum number of idle buffers kept for reuse. */
+    private static final int MAX_IDLE_BUFFERS = 4;
+
+    /** The size of a slot in pixels. */
+    private final int slotSize;
+    /** The pages of the atlas. */
+    private final List<Page> pages = new ArrayList<>(1);
+    /** The regions whose buffers have not been copied into their page yet. */
+    private final List<Region> pendingRegions = new ArrayList<>();
+    /** The released regions whose slots have not been reclaimed yet. */
+    private final List<Region> releasedRegions = new ArrayList<>();
+    /** Buffers of copied regions for reuse. */
+    private final Deque<Bitmap> idleBuffers = new ArrayDeque<>(MAX_IDLE_BUFFERS);
+    /** Handler for copying buffers on the main thread. */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** The paint replacing the pixels of a slot. */
+    private final Paint copyPaint = new Paint();
+    /** Copies the pending buffers into their pages. */
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /** Flag, if copying the buffers is posted. */
+    private boolean flushPosted = false;
+
+    /** Number of slots allocated. */
+    private int allocatedCount;
+    /** Number of slots released. */
+    private int releasedCount;
+    /** Number of pages created. */
+    private int pageCount;
+    /** Number of texture uploads, i. e. draws of a page that changed since its last draw. */
+    private int uploadCount;
+
+    /**
+     * Create a new atlas.
+     * @param slotSize the size of a slot in pixels
+     */
+    public IconAtlas(final int slotSize) {
+        this.slotSize = slotSize;
+        copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    /**
+     * Get a cleared buffer of the slot size for drawing an icon.
+     * @return the buffer, pass it to {@link #allocate(Bitmap)} or {@link #recycleBuffer(Bitmap)}
+     */
+    public Bitmap obtainBuffer() {
+        final Bitmap buffer;
+        synchronized (this) {
+            buffer = idleBuffers.pollFirst();
+        }
+
+        if (buffer == null) {
+            return Bitmap.createBitmap(slotSize, slotSize, Bitmap.Config.ARGB_8888);
+        }
+
+        buffer.eraseColor(0);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer that has not been allocated, e. g. for a duplicate icon.
+     * @param buffer the buffer
+     */
+    public synchronized void recycleBuffer(final Bitmap buffer) {
+        if (idleBuffers.size() < MAX_IDLE_BUFFERS) {
+            idleBuffers.addLast(buffer);
+        }
+    }
+
+    /**
+     * Allocate a slot for an icon. The buffer is copied into the slot on the main thread,
+     * until then the region draws the buffer. The buffer must not be changed anymore.
+     * @param buffer the buffer from {@link #obtainBuffer()} with the icon
+     * @return the region of the slot
+     */
+    public synchronized Region allocate(final Bitmap buffer) {
+        Page page = null;
+        for (int i = 0, size = pages.size(); i < size; i++) {
+            if (pages.get(i).used.cardinality() < SLOTS_PER_PAGE) {
+                page = pages.get(i);
+                break;
+            }
+        }
+
+        if (page == null) {
+            page = new Page(Bitmap.createBitmap(slotSize * SLOTS_PER_SIDE, slotSize * SLOTS_PER_SIDE, Bitmap.Config.ARGB_8888));
+            pages.add(page);
+            pageCount++;
+        }
+
+        final int slot = page.used.nextClearBit(0);
+        page.used.set(slot);
+        allocatedCount++;
+
+        final int left = (slot % SLOTS_PER_SIDE) * slotSize;
+        final int top = (slot / SLOTS_PER_SIDE) * slotSize;
+
+        final Region region = new Region(page, slot, new Rect(left, top, left + slotSize, top + slotSize), buffer);
+        pendingRegions.add(region);
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            flush();
+        } else if (!flushPosted) {
+            flushPosted = true;
+            handler.post(flushRunnable);
+        }
+
+        return region;
+    }
+
+    /**
+     * Copy the pending buffers into their pages. Runs on the main thread.
+     */
+    private synchronized void flush() {
+        flushPosted = false;
+        if (pendingRegions.isEmpty()) {
+            return;
+        }
+
+        final Canvas canvas = new Canvas();
+        for (int i = 0, size = pendingRegions.size(); i < size; i++) {
+            final Region region = pendingRegions.get(i);
+            final Bitmap buffer = region.buffer;
+
+            if (!region.reclaimed) {
+                canvas.setBitmap(region.page.bitmap);
+                canvas.drawBitmap(buffer, null, region.source, copyPaint);
+                region.page.generation++;
+            }
+
+            region.buffer = null;
+
+            // A buffer that has been drawn may still be uploaded by the render thread.
+            if (!region.bufferDrawn) {
+                recycleBuffer(buffer);
+            }
+        }
+        canvas.setBitmap(null);
+        pendingRegions.clear();
+    }
+
+    /**
+     * Release the slot of a region. The slot is reused after the next {@link #reclaim()}.
+     * Must be called on the main thread.
+     * @param region the region
+     */
+    public synchronized void release(final Region region) {
+        if (region.atlas() != this || region.released) {
+            return;
+        }
+
+        region.released = true;
+        releasedRegions.add(region);
+        releasedCount++;
+    }
+
+    /**
+     * Make the slots of released regions available to new icons. Must be called on the
+     * main thread, once no view or adapter can show the released regions anymore, e. g.
+     * after the drawer has been rebound. Regions drawn after this draw nothing.
+     * @return the number of reclaimed slots
+     */
+    public synchronized int reclaim() {
+        final int count = releasedRegions.size();
+        for (int i = 0; i < count; i++) {
+            final Region region = releasedRegions.get(i);
+            region.reclaimed = true;
+            region.page.used.clear(region.slot);
+        }
+        releasedRegions.clear();
+
+        return count;
+    }
+
+    /**
+     * Drop all pages without used slots.
+     * @return the number of bytes released
+     */
+    public synchronized long trim() {
+        long bytes = 0;
+        for (Iterator<Page> iterator = pages.iterator(); iterator.hasNext();) {
+            final Page page = iterator.next();
+            if (page.used.isEmpty()) {
+                bytes += page.bitmap.getAllocationByteCount();
+                iterator.remove();
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Start uploading all pages to the GPU ahead of time. Must be called on the main
+     * thread, pending buffers are copied first.
+     */
+    public synchronized void prepareToDraw() {
+        flush();
+        for (int i = 0, size = pages.size(); i < size; i++) {
+            pages.get(i).bitmap.prepareToDraw();
+        }
+    }
+
+    /**
+     *
+     * @return the number of bytes of all pages
+     */
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (int i = 0, size = pages.size(); i < size; i++) {
+            bytes += pages.get(i).bitmap.getAllocationByteCount();
+        }
+
+        return bytes;
+    }
+
+    /**
+     *
+     * @return the number of bytes of the free slots of all pages
+     */
+    public synchronized long getFreeBytes() {
+        return (long) getFreeSlots() * slotSize * slotSize * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Get the fragmentation of the atlas, i. e. the share of free slots in all pages.
+     * @return the fragmentation between 0 and 1
+     */
+    public synchronized float getFragmentation() {
+        return pages.isEmpty() ? 0 : (float) getFreeSlots() / (pages.size() * SLOTS_PER_PAGE);
+    }
+
+    /**
+     * @return the number of free slots in all pages
+     */
+    private int getFreeSlots() {
+        int free = 0;
+        for (int i = 0, size = pages.size(); i < size; i++) {
+            free += SLOTS_PER_PAGE - pages.get(i).used.cardinality();
+        }
+
+        return free;
+    }
+
+    /**
+     *
+     * @return the number of pages
+     */
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     *
+     * @return the number of pages created
+     */
+    public synchronized int getCreatedPageCount() {
+        return pageCount;
+    }
+
+    /**
+     *
+     * @return the number of slots allocated
+     */
+    public synchronized int getAllocatedCount() {
+        return allocatedCount;
+    }
+
+    /**
+     *
+     * @return the number of slots released
+     */
+    public synchronized int getReleasedCount() {
+        return releasedCount;
+    }
+
+    /**
+     *
+     * @return the number of texture uploads
+     */
+    public synchronized int getUploadCount() {
+        return uploadCount;
+    }
+
+    /**
+     * Register the gauges of this atlas with the metrics.
+     * @param owner the owner of the gauges, which removes them when it goes
+     */
+    public void registerGauges(final Object owner) {
+        final Metrics metrics = Metrics.getInstance();
+        metrics.setGauge(owner, "atlas.bytes", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getBytes();
+            }
+        });
+
+        metrics.setGauge(owner, "atlas.freeBytes", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getFreeBytes();
+            }
+        });
+
+        metrics.setGauge(owner, "atlas.pages", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getPageCount();
+            }
+        });
+
+        metrics.setGauge(owner, "atlas.allocated", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getAllocatedCount();
+            }
+        });
+
+        metrics.setGauge(owner, "atlas.released", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getReleasedCount();
+            }
+        });
+
+        metrics.setGauge(owner, "atlas.uploads", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getUploadCount();
+            }
+        });
+
+        metrics.setGauge(owner, "atlas.fragmentationPercent", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return Math.round(getFragmentation() * 100);
+            }
+        });
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "IconAtlas{pages=%d, slots=%d/%d, fragmentation=%.2f, uploads=%d, bytes=%d}",
+                pages.size(), pages.size() * SLOTS_PER_PAGE - getFreeSlots(), pages.size() * SLOTS_PER_PAGE,
+                getFragmentation(), uploadCount, getBytes());
+    }
+
+    /**
+     * Count a draw of a page and whether it needs an upload.
+     * @param page the page
+     */
+    private synchronized void onDraw(final Page page) {
+        if (page.drawnGeneration != page.generation) {
+            page.drawnGeneration = page.generation;
+            uploadCount++;
+        }
+    }
+
+    /**
+     * A page of the atlas.
+     */
+    private static final class Page {
+        /** The bitmap. */
+        private final Bitmap bitmap;
+        /** The used slots. */
+        private final BitSet used = new BitSet(SLOTS_PER_PAGE);
+        /** The generation of the content, incremented on every change. Guarded by the atlas. */
+        private int generation;
+        /** The generation of the content at the last draw. */
+        private int drawnGeneration = -1;
+
+        /**
+         * Create a new page.
+         * @param bitmap the bitmap
+         */
+        private Page(final Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    /**
+     * Drawable for one slot of the atlas.
+     */
+    public final class Region extends Drawable {
+        /** The page. */
+        private final Page page;
+        /** The slot in the page. */
+        private final int slot;
+        /** The bounds of the slot in the page. */
+        private final Rect source;
+        /** The paint for drawing. */
+        private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        /** The buffer with the icon, <code>null</code> once it has been copied into the page. */
+        private volatile Bitmap buffer;
+        /** Flag, if the buffer has been drawn. Only used on the main thread. */
+        private boolean bufferDrawn = false;
+        /** Flag, if the region has been released. Guarded by the atlas. */
+        private boolean released = false;
+        /** Flag, if the slot has been reclaimed and may hold another icon. */
+        private volatile boolean reclaimed = false;
+
+        /**
+         * Create a new region.
+         * @param page the page
+         * @param slot the slot
+         * @param source the bounds of the slot in the page
+         * @param buffer the buffer with the icon
+         */
+        private Region(final Page page, final int slot, final Rect source, final Bitmap buffer) {
+            this.page = page;
+            this.slot = slot;
+            this.source = source;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the atlas of this region
+         */
+        private IconAtlas atlas() {
+            return IconAtlas.this;
+        }
+
+        /**
+         * Read the pixels of the icon.
+         * @param pixels the array for the pixels, with at least size * size entries
+         */
+        public void readPixels(final int[] pixels) {
+            synchronized (IconAtlas.this) {
+                if (buffer != null) {
+                    buffer.getPixels(pixels, 0, slotSize, 0, 0, slotSize, slotSize);
+                } else {
+                    page.bitmap.getPixels(pixels, 0, slotSize, source.left, source.top, slotSize, slotSize);
+                }
+            }
+        }
+
+        /**
+         *
+         * @return <code>true</code> if the region has been released and must not be shown anymore
+         */
+        public boolean isReleased() {
+            synchronized (IconAtlas.this) {
+                return released;
+            }
+        }
+
+        @Override
+        public void draw(final Canvas canvas) {
+            // The slot may hold another icon by now.
+            if (reclaimed) {
+                return;
+            }
+
+            final Bitmap currentBuffer = buffer;
+            if (currentBuffer != null) {
+                bufferDrawn = true;
+                canvas.drawBitmap(currentBuffer, null, getBounds(), paint);
+            } else {
+                onDraw(page);
+                canvas.drawBitmap(page.bitmap, source, getBounds(), paint);
+            }
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return slotSize;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return slotSize;
+        }
+
+        @Override
+        public void setAlpha(final int alpha) {
+            paint.setAlpha(alpha);
+            invalidateSelf();
+        }
+
+        @Override
+        public void setColorFilter(final ColorFilter colorFilter) {
+            paint.setColorFilter(colorFilter);
+            invalidateSelf();
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2017  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.util;
+
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import de.clemensbartz.android.launcher.R;
+
+/**
+ * Factory for application icons. Icons are drawn once into slots of the exact size
+ * of the dock and drawer cells, instead of keeping the full density drawables of the
+ * package manager. The slots are packed into an {@link IconAtlas}; slots of replaced
+ * icons are reused for new icons, so that package updates do not allocate new bitmaps.
+ * Icons are drawn into a private buffer and only copied into the atlas on the main
+ * thread.
+ * <p/>
+ * Identical icons share one slot. Icons are looked up by the identity of their resource
+ * before they are loaded, and by a hash of their pixels after they have been drawn, which
+ * also catches identical icons from different resources.
+ * <p/>
+ * All methods except {@link #recycle(Drawable)} and {@link #reclaim()} may be called from
+ * any thread.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class IconFactory {
+
+    /** The size of an icon in pixels. */
+    private final int iconSize;
+    /** The atlas holding the icons. */
+    private final IconAtlas atlas;
+    /** The icon to use if an application has none. */
+    private final Drawable fallbackIcon;
+
+    /** The icons by resource key. */
+    private final Map<String, IconAtlas.Region> iconsByKey = new HashMap<>();
+    /** The icons by pixel hash. */
+    private final Map<Integer, IconAtlas.Region> iconsByHash = new HashMap<>();
+    /** The resource keys of the icons, deduplicated icons have several. */
+    private final Map<IconAtlas.Region, List<String>> keys = new IdentityHashMap<>();
+    /** The pixel hashes of the icons. */
+    private final Map<IconAtlas.Region, Integer> hashes = new IdentityHashMap<>();
+
+    /** Number of requested icons. */
+    private int requestCount;
+    /** Number of icons found by resource key. */
+    private int keyHitCount;
+    /** Number of icons found by pixel hash. */
+    private int hashHitCount;
+
+    /**
+     * Create a new factory.
+     * @param resources the resources
+     * @param fallbackIcon the icon to use if an application has none
+     */
+    public IconFactory(final Resources resources, final Drawable fallbackIcon) {
+        this.iconSize = resources.getDimensionPixelSize(R.dimen.icon_size);
+        this.atlas = new IconAtlas(iconSize);
+        this.fallbackIcon = createIcon(fallbackIcon);
+    }
+
+    /**
+     * Get the resource key of the icon of an activity.
+     * @param resolveInfo the resolve info of the activity
+     * @return the key, or <code>null</code>, if the icon has no resource
+     */
+    public static String getIconKey(final ResolveInfo resolveInfo) {
+        return getIconKey(resolveInfo.activityInfo.packageName, resolveInfo.getIconResource(), resolveInfo.activityInfo.applicationInfo);
+    }
+
+    /**
+     * Get the resource key of the icon of an activity.
+     * @param activityInfo the activity
+     * @return the key, or <code>null</code>, if the icon has no resource
+     */
+    public static String getIconKey(final ActivityInfo activityInfo) {
+        return getIconKey(activityInfo.packageName, activityInfo.getIconResource(), activityInfo.applicationInfo);
+    }
+
+    /**
+     * Get the resource key of an icon. The key contains the path of the package, so it
+     * changes when the package is updated.
+     * @param packageName the package name
+     * @param iconResource the resource id of the icon
+     * @param applicationInfo the application, can be <code>null</code>
+     * @return the key, or <code>null</code>, if the icon has no resource
+     */
+    private static String getIconKey(final String packageName, final int iconResource, final ApplicationInfo applicationInfo) {
+        if (iconResource == 0 || applicationInfo == null) {
+            return null;
+        }
+
+        return packageName + '/' + Integer.toHexString(iconResource) + '@' + applicationInfo.sourceDir;
+    }
+
+    /**
+     * Get an icon by its resource key, without loading it.
+     * @param key the resource key, can be <code>null</code>
+     * @return the icon, or <code>null</code>, if it has not been created yet
+     */
+    public synchronized Drawable getIcon(final String key) {
+        if (key == null) {
+            return null;
+        }
+
+        final IconAtlas.Region icon = iconsByKey.get(key);
+        if (icon != null) {
+            requestCount++;
+            keyHitCount++;
+        }
+
+        return icon;
+    }
+
+    /**
+     * Create an icon of the cell size from a drawable.
+     * @param source the drawable, e. g. from the package manager, can be <code>null</code>
+     * @return the icon, or the fallback icon if the source is <code>null</code>
+     */
+    public Drawable createIcon(final Drawable source) {
+        return createIcon(null, source);
+    }
+
+    /**
+     * Create an icon of the cell size from a drawable. If an identical icon exists, it
+     * is returned instead.
+     * @param key the resource key, can be <code>null</code>
+     * @param source the drawable, e. g. from the package manager, can be <code>null</code>
+     * @return the icon, or the fallback icon if the source is <code>null</code>
+     */
+    public Drawable createIcon(final String key, final Drawable source) {
+        if (source == null) {
+            return fallbackIcon;
+        }
+
+        final Bitmap buffer = atlas.obtainBuffer();
+        final Canvas canvas = new Canvas(buffer);
+
+        // Keep the aspect ratio and center the icon.
+        final int intrinsicWidth = source.getIntrinsicWidth() > 0 ? source.getIntrinsicWidth() : iconSize;
+        final int intrinsicHeight = source.getIntrinsicHeight() > 0 ? source.getIntrinsicHeight() : iconSize;
+        final float scale = Math.min((float) iconSize / intrinsicWidth, (float) iconSize / intrinsicHeight);
+        final int width = Math.round(intrinsicWidth * scale);
+        final int height = Math.round(intrinsicHeight * scale);
+        final int left = (iconSize - width) / 2;
+        final int top = (iconSize - height) / 2;
+
+        final Rect oldBounds = source.copyBounds();
+        source.setBounds(left, top, left + width, top + height);
+        source.draw(canvas);
+        source.setBounds(oldBounds);
+        canvas.setBitmap(null);
+
+        return deduplicate(key, buffer);
+    }
+
+    /**
+     * Find an existing icon with the same pixels, or allocate a new one, and index it.
+     * @param key the resource key, can be <code>null</code>
+     * @param buffer the buffer with the new icon
+     * @return the icon to use
+     */
+    private IconAtlas.Region deduplicate(final String key, final Bitmap buffer) {
+        final int[] pixels = new int[iconSize * iconSize];
+        buffer.getPixels(pixels, 0, iconSize, 0, 0, iconSize, iconSize);
+        final int hash = Arrays.hashCode(pixels);
+
+        synchronized (this) {
+            requestCount++;
+
+            final IconAtlas.Region existing = iconsByHash.get(hash);
+            IconAtlas.Region result = null;
+            if (existing != null) {
+                final int[] existingPixels = new int[iconSize * iconSize];
+                existing.readPixels(existingPixels);
+
+                if (Arrays.equals(pixels, existingPixels)) {
+                    atlas.recycleBuffer(buffer);
+                    hashHitCount++;
+                    result = existing;
+                }
+            }
+            if (result == null) {
+                result = atlas.allocate(buffer);
+                if (existing == null) {
+                    iconsByHash.put(hash, result);
+                    hashes.put(result, hash);
+                }
+            }
+
+            // Index every key, so that the next scan finds deduplicated icons without loading them.
+            if (key != null && iconsByKey.get(key) != result) {
+                final IconAtlas.Region previous = iconsByKey.put(key, result);
+                if (previous != null) {
+                    keys.get(previous).remove(key);
+                }
+
+                List<String> resultKeys = keys.get(result);
+                if (resultKeys == null) {
+                    resultKeys = new ArrayList<>(1);
+                    keys.put(result, resultKeys);
+                }
+                resultKeys.add(key);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Release the slot of an icon. The icon is not served anymore, and its slot is reused
+     * after the next {@link #reclaim()}. Must be called on the main thread.
+     * @param icon the icon, icons not created by this factory are ignored
+     */
+    public synchronized void recycle(final Drawable icon) {
+        if (icon == fallbackIcon || !(icon instanceof IconAtlas.Region)) {
+            return;
+        }
+
+        final IconAtlas.Region region = (IconAtlas.Region) icon;
+
+        final List<String> regionKeys = keys.remove(region);
+        if (regionKeys != null) {
+            for (int i = 0, size = regionKeys.size(); i < size; i++) {
+                iconsByKey.remove(regionKeys.get(i));
+            }
+        }
+        final Integer hash = hashes.remove(region);
+        if (hash != null) {
+            iconsByHash.remove(hash);
+        }
+
+        atlas.release(region);
+    }
+
+    /**
+     * Make the slots of recycled icons available to new icons. Must be called on the main
+     * thread, once no view or adapter can show the recycled icons anymore.
+     * @return the number of reclaimed slots
+     */
+    public int reclaim() {
+        return atlas.reclaim();
+    }
+
+    /**
+     * Check if an icon has been recycled, e. g. while it was loaded.
+     * @param icon the icon
+     * @return <code>true</code> if the icon must not be shown anymore
+     */
+    public boolean isRecycled(final Drawable icon) {
+        return icon instanceof IconAtlas.Region && ((IconAtlas.Region) icon).isReleased();
+    }
+
+    /**
+     * Get the share of requested icons that have been served by an existing icon.
+     * @return the dedupe ratio between 0 and 1
+     */
+    public synchronized float getDedupeRatio() {
+        return requestCount == 0 ? 0 : (float) (keyHitCount + hashHitCount) / requestCount;
+    }
+
+    /**
+     *
+     * @return the number of requested icons
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     *
+     * @return the number of icons found by resource key
+     */
+    public synchronized int getKeyHitCount() {
+        return keyHitCount;
+    }
+
+    /**
+     *
+     * @return the number of icons found by pixel hash
+     */
+    public synchronized int getHashHitCount() {
+        return hashHitCount;
+    }
+
+    /**
+     * Register the gauges of this factory and its atlas with the metrics.
+     * @param owner the owner of the gauges, which removes them when it goes
+     */
+    public void registerGauges(final Object owner) {
+        atlas.registerGauges(owner);
+
+        final Metrics metrics = Metrics.getInstance();
+        metrics.setGauge(owner, "icons.requests", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getRequestCount();
+            }
+        });
+
+        metrics.setGauge(owner, "icons.keyHits", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getKeyHitCount();
+            }
+        });
+
+        metrics.setGauge(owner, "icons.hashHits", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getHashHitCount();
+            }
+        });
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "IconFactory{requests=%d, keyHits=%d, hashHits=%d, dedupeRatio=%.2f}",
+                requestCount, keyHitCount, hashHitCount, getDedupeRatio());
+    }
+
+    /**
+     * Drop the pages of the atlas without icons, e. g. when memory is low.
+     * @return the number of bytes released
+     */
+    public long trim() {
+        return atlas.trim();
+    }
+
+    /**
+     *
+     * @return the size of an icon in pixels
+     */
+    public int getIconSize() {
+        return iconSize;
+    }
+
+    /**
+     *
+     * @return the icon to use if an application has none
+     */
+    public Drawable getFallbackIcon() {
+        return fallbackIcon;
+    }
+
+    /**
+     *
+     * @return the atlas holding the icons
+     */
+    public IconAtlas getAtlas() {
+        return atlas;
+    }
+}
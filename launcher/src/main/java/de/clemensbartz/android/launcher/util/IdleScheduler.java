@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * Scheduler for low priority work on the main thread. Jobs are queued and only run
+ * when the message queue of the main looper is idle. Each idle slice runs jobs until
+ * its time budget is used up; the rest waits for the next idle slice. Jobs scheduled
+ * while a slice runs wait for the next one, so that a job re-queueing itself cannot
+ * keep the main thread busy.
+ * <p/>
+ * Jobs should be short. Jobs that need to do I/O should only start an async task.
+ * All methods must be called from the main thread.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class IdleScheduler implements MessageQueue.IdleHandler {
+
+    /** The message queue of the main looper. */
+    private final MessageQueue messageQueue;
+    /** Handler to wake up the looper for another idle slice. */
+    private final Handler handler;
+    /** The time budget per idle slice in nanoseconds. */
+    private final long budgetNanos;
+    /** The queued jobs. */
+    private final Queue<Job> jobs = new ArrayDeque<>();
+    /** Empty runnable for waking up the looper. */
+    private final Runnable wakeUp = new Runnable() {
+        @Override
+        public void run() {
+            // Nothing to do, the looper will become idle again afterwards.
+        }
+    };
+
+    /** Flag, if this scheduler is registered as idle handler. */
+    private boolean registered = false;
+
+    /** Number of jobs that have been scheduled. */
+    private int scheduledCount;
+    /** Number of jobs that have been run. */
+    private int executedCount;
+    /** Number of jobs that have been cancelled. */
+    private int cancelledCount;
+    /** Number of idle slices used. */
+    private int idleSliceCount;
+    /** Total time spent running jobs in nanoseconds. */
+    private long totalRunNanos;
+    /** Longest single job in nanoseconds. */
+    private long maxRunNanos;
+    /** Name of the longest single job. */
+    private String maxRunName;
+    /** Total time jobs waited for an idle slice in nanoseconds. */
+    private long totalDelayNanos;
+
+    /**
+     * Create a new scheduler for the main looper. Must be called on the main thread.
+     * @param budgetNanos the time budget per idle slice in nanoseconds
+     */
+    public IdleScheduler(final long budgetNanos) {
+        this.messageQueue = Looper.myQueue();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Queue a job for the next idle slice.
+     * @param name the name of the job, for instrumentation
+     * @param runnable the job
+     */
+    public void schedule(final String name, final Runnable runnable) {
+        jobs.add(new Job(name, runnable, SystemClock.elapsedRealtimeNanos()));
+        scheduledCount++;
+
+        if (!registered) {
+            messageQueue.addIdleHandler(this);
+            registered = true;
+        }
+    }
+
+    /**
+     * Cancel all queued jobs, e. g. when the activity stops.
+     */
+    public void cancelAll() {
+        cancelledCount += jobs.size();
+        jobs.clear();
+
+        if (registered) {
+            messageQueue.removeIdleHandler(this);
+            handler.removeCallbacks(wakeUp);
+            registered = false;
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        idleSliceCount++;
+
+        long now = start;
+        int remaining = jobs.size();
+        while (remaining > 0 && now - start < budgetNanos) {
+            remaining--;
+            final Job job = jobs.poll();
+            totalDelayNanos += now - job.scheduledAt;
+
+            job.runnable.run();
+
+            final long end = SystemClock.elapsedRealtimeNanos();
+            final long duration = end - now;
+
+            executedCount++;
+            totalRunNanos += duration;
+            if (duration > maxRunNanos) {
+                maxRunNanos = duration;
+                maxRunName = job.name;
+            }
+
+            now = end;
+        }
+
+        if (jobs.isEmpty()) {
+            registered = false;
+            return false;
+        }
+
+        // Idle handlers only run once per idle period, so wake up the looper.
+        handler.post(wakeUp);
+        return true;
+    }
+
+    /**
+     *
+     * @return the number of queued jobs
+     */
+    public int getPendingCount() {
+        return jobs.size();
+    }
+
+    /**
+     *
+     * @return the number of jobs that have been scheduled
+     */
+    public int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     *
+     * @return the number of jobs that have been run
+     */
+    public int getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     *
+     * @return the number of jobs that have been cancelled
+     */
+    public int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     *
+     * @return the number of idle slices used
+     */
+    public int getIdleSliceCount() {
+        return idleSliceCount;
+    }
+
+    /**
+     *
+     * @return the total time spent running jobs in idle slices in nanoseconds
+     */
+    public long getTotalRunNanos() {
+        return totalRunNanos;
+    }
+
+    /**
+     *
+     * @return the longest single job in nanoseconds
+     */
+    public long getMaxRunNanos() {
+        return maxRunNanos;
+    }
+
+    /**
+     *
+     * @return the name of the longest single job, or <code>null</code>
+     */
+    public String getMaxRunName() {
+        return maxRunName;
+    }
+
+    /**
+     *
+     * @return the total time jobs waited for an idle slice in nanoseconds
+     */
+    public long getTotalDelayNanos() {
+        return totalDelayNanos;
+    }
+
+    /**
+     * Register the gauges of this scheduler with the metrics.
+     * @param owner the owner of the gauges, which removes them when it goes
+     */
+    public void registerGauges(final Object owner) {
+        final Metrics metrics = Metrics.getInstance();
+        metrics.setGauge(owner, "idle.scheduled", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return scheduledCount;
+            }
+        });
+
+        metrics.setGauge(owner, "idle.executed", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return executedCount;
+            }
+        });
+
+        metrics.setGauge(owner, "idle.cancelled", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return cancelledCount;
+            }
+        });
+
+        metrics.setGauge(owner, "idle.pending", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return jobs.size();
+            }
+        });
+
+        metrics.setGauge(owner, "idle.slices", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return idleSliceCount;
+            }
+        });
+
+        metrics.setGauge(owner, "idle.runUs", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return totalRunNanos / 1000;
+            }
+        });
+
+        metrics.setGauge(owner, "idle.maxRunUs", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return maxRunNanos / 1000;
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "IdleScheduler{scheduled=%d, executed=%d, cancelled=%d, pending=%d, slices=%d, runMs=%.2f, maxRunMs=%.2f (%s), delayMs=%.2f}",
+                scheduledCount, executedCount, cancelledCount, jobs.size(), idleSliceCount,
+                totalRunNanos / 1e6, maxRunNanos / 1e6, maxRunName, totalDelayNanos / 1e6);
+    }
+
+    /**
+     * A queued job.
+     */
+    private static final class Job {
+        /** The name of the job. */
+        private final String name;
+        /** The job. */
+        private final Runnable runnable;
+        /** The time the job has been scheduled at in nanoseconds. */
+        private final long scheduledAt;
+
+        /**
+         * Create a new job.
+         * @param name the name
+         * @param runnable the job
+         * @param scheduledAt the time the job has been scheduled at
+         */
+        private Job(final String name, final Runnable runnable, final long scheduledAt) {
+            this.name = name;
+            this.runnable = runnable;
+            this.scheduledAt = scheduledAt;
+        }
+    }
+}
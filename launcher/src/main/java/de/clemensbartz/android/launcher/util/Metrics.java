@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.util;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of performance metrics of the process: counters, gauges and timers with a
+ * histogram of latencies. Counters and timers are created on first use and live as long
+ * as the process; callers should keep them in fields. Gauges are read when the metrics
+ * are dumped and belong to an owner, e. g. an activity, which removes them when it goes.
+ * <p/>
+ * Counters and timers may be used from any thread. The metrics are printed by
+ * {@link #dump(PrintWriter, String, boolean)}, for humans or as tab separated lines.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class Metrics {
+
+    /** Number of histogram buckets. Bucket i counts latencies below 2^i microseconds. */
+    public static final int BUCKET_COUNT = 20;
+
+    /** The instance of the process. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** The counters by name. */
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    /** The timers by name. */
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    /** The gauges by name. Guarded by itself. */
+    private final Map<String, GaugeEntry> gauges = new HashMap<>();
+
+    /**
+     * Hide constructor.
+     */
+    private Metrics() {
+
+    }
+
+    /**
+     *
+     * @return the registry of the process
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a counter, and create it if it does not exist yet.
+     * @param name the name
+     * @return the counter
+     */
+    public Counter counter(final String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            final Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+
+        return counter;
+    }
+
+    /**
+     * Get a timer, and create it if it does not exist yet.
+     * @param name the name
+     * @return the timer
+     */
+    public Timer timer(final String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            final Timer newTimer = new Timer();
+            timer = timers.putIfAbsent(name, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+
+        return timer;
+    }
+
+    /**
+     * Set a gauge. A gauge with the same name is replaced.
+     * @param owner the owner
+     * @param name the name
+     * @param gauge the gauge
+     */
+    public void setGauge(final Object owner, final String name, final Gauge gauge) {
+        synchronized (gauges) {
+            gauges.put(name, new GaugeEntry(owner, gauge));
+        }
+    }
+
+    /**
+     * Remove all gauges of an owner.
+     * @param owner the owner
+     */
+    public void removeGauges(final Object owner) {
+        synchronized (gauges) {
+            final List<String> names = new ArrayList<>(0);
+            for (Map.Entry<String, GaugeEntry> entry : gauges.entrySet()) {
+                if (entry.getValue().owner == owner) {
+                    names.add(entry.getKey());
+                }
+            }
+            for (String name : names) {
+                gauges.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Reset all counters and timers. Gauges show current values and are not reset.
+     */
+    public void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Timer timer : timers.values()) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Print all metrics, sorted by name.
+     * <p/>
+     * The machine-readable format has one metric per line with tab separated fields:
+     * the type (counter, gauge or timer), the name and the values. Timers have the values
+     * count, totalUs, maxUs, p50Us, p90Us, p99Us and buckets, as key=value pairs.
+     * Percentiles are upper bounds of histogram buckets.
+     * @param writer the writer
+     * @param prefix the prefix of each line
+     * @param machine <code>true</code> for the machine-readable format
+     */
+    public void dump(final PrintWriter writer, final String prefix, final boolean machine) {
+        final Map<String, Long> gaugeValues = new TreeMap<>();
+        synchronized (gauges) {
+            for (Map.Entry<String, GaugeEntry> entry : gauges.entrySet()) {
+                gaugeValues.put(entry.getKey(), entry.getValue().gauge.getValue());
+            }
+        }
+        final Map<String, Counter> sortedCounters = new TreeMap<>(counters);
+        final Map<String, Timer> sortedTimers = new TreeMap<>(timers);
+
+        if (!machine) {
+            writer.print(prefix);
+            writer.println("Metrics:");
+        }
+
+        for (Map.Entry<String, Counter> entry : sortedCounters.entrySet()) {
+            print(writer, prefix, machine, "counter", entry.getKey(), Long.toString(entry.getValue().get()));
+        }
+        for (Map.Entry<String, Long> entry : gaugeValues.entrySet()) {
+            print(writer, prefix, machine, "gauge", entry.getKey(), Long.toString(entry.getValue()));
+        }
+        for (Map.Entry<String, Timer> entry : sortedTimers.entrySet()) {
+            final Timer timer = entry.getValue().copy();
+            final String values;
+            if (machine) {
+                final StringBuilder buckets = new StringBuilder();
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    if (i > 0) {
+                        buckets.append(',');
+                    }
+                    buckets.append(timer.histogram[i]);
+                }
+                values = String.format(Locale.US, "count=%d\ttotalUs=%d\tmaxUs=%d\tp50Us=%d\tp90Us=%d\tp99Us=%d\tbuckets=%s",
+                        timer.count, timer.totalNanos / 1000L, timer.maxNanos / 1000L,
+                        timer.getPercentileMicros(50), timer.getPercentileMicros(90), timer.getPercentileMicros(99),
+                        buckets);
+            } else {
+                values = timer.toString();
+            }
+            print(writer, prefix, machine, "timer", entry.getKey(), values);
+        }
+    }
+
+    /**
+     * Print one metric.
+     * @param writer the writer
+     * @param prefix the prefix of the line
+     * @param machine <code>true</code> for the machine-readable format
+     * @param type the type
+     * @param name the name
+     * @param values the values
+     */
+    private static void print(final PrintWriter writer,
+                              final String prefix,
+                              final boolean machine,
+                              final String type,
+                              final String name,
+                              final String values) {
+        writer.print(prefix);
+        if (machine) {
+            writer.print(type);
+            writer.print('\t');
+            writer.print(name);
+            writer.print('\t');
+        } else {
+            writer.print("  ");
+            writer.print(name);
+            writer.print(": ");
+        }
+        writer.println(values);
+    }
+
+    /**
+     * Gauge, read on the thread dumping the metrics, e. g. the main thread for
+     * {@link android.app.Activity#dump(String, java.io.FileDescriptor, PrintWriter, String[])}.
+     */
+    public interface Gauge {
+        /**
+         *
+         * @return the current value
+         */
+        long getValue();
+    }
+
+    /**
+     * Gauge with its owner.
+     */
+    private static final class GaugeEntry {
+        /** The owner. */
+        private final Object owner;
+        /** The gauge. */
+        private final Gauge gauge;
+
+        /**
+         * Create a new entry.
+         * @param owner the owner
+         * @param gauge the gauge
+         */
+        private GaugeEntry(final Object owner, final Gauge gauge) {
+            this.owner = owner;
+            this.gauge = gauge;
+        }
+    }
+
+    /**
+     * Counter of events.
+     */
+    public static final class Counter {
+        /** The value. */
+        private final AtomicLong value = new AtomicLong();
+
+        /**
+         * Count one event.
+         */
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        /**
+         * Count several events.
+         * @param delta the number of events
+         */
+        public void add(final long delta) {
+            value.addAndGet(delta);
+        }
+
+        /**
+         *
+         * @return the number of events
+         */
+        public long get() {
+            return value.get();
+        }
+
+        /**
+         * Set the value to 0.
+         */
+        private void reset() {
+            value.set(0);
+        }
+    }
+
+    /**
+     * Timer with a histogram of latencies.
+     */
+    public static final class Timer {
+        /** Number of recorded latencies. */
+        private int count;
+        /** Total latency in nanoseconds. */
+        private long totalNanos;
+        /** Longest latency in nanoseconds. */
+        private long maxNanos;
+        /** Histogram of the latencies. */
+        private final int[] histogram = new int[BUCKET_COUNT];
+
+        /**
+         *
+         * @return the current time for {@link #recordSince(long)}
+         */
+        public static long start() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+
+        /**
+         * Record the latency since a start time.
+         * @param startNanos the start time from {@link #start()}
+         */
+        public void recordSince(final long startNanos) {
+            record(SystemClock.elapsedRealtimeNanos() - startNanos);
+        }
+
+        /**
+         * Record a latency.
+         * @param nanos the latency in nanoseconds
+         */
+        public synchronized void record(final long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            histogram[Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000L))]++;
+        }
+
+        /**
+         *
+         * @return the number of recorded latencies
+         */
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         *
+         * @return the longest latency in nanoseconds
+         */
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Get a percentile of the latencies as upper bound of its histogram bucket.
+         * @param percent the percentile, e. g. 99
+         * @return the upper bound in microseconds, or 0 if nothing has been recorded
+         */
+        public synchronized long getPercentileMicros(final int percent) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = ((long) count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxNanos / 1000L);
+                }
+            }
+
+            // The last bucket is open, its bound is the longest latency.
+            return maxNanos / 1000L;
+        }
+
+        /**
+         *
+         * @return a copy of this timer
+         */
+        private synchronized Timer copy() {
+            final Timer timer = new Timer();
+            timer.count = count;
+            timer.totalNanos = totalNanos;
+            timer.maxNanos = maxNanos;
+            System.arraycopy(histogram, 0, timer.histogram, 0, BUCKET_COUNT);
+
+            return timer;
+        }
+
+        /**
+         * Drop all recorded latencies.
+         */
+        private synchronized void reset() {
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            Arrays.fill(histogram, 0);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US, "count=%d, meanMs=%.2f, p50Ms<=%.2f, p90Ms<=%.2f, p99Ms<=%.2f, maxMs=%.2f",
+                    count, count == 0 ? 0 : totalNanos / 1e6 / count,
+                    getPercentileMicros(50) / 1e3, getPercentileMicros(90) / 1e3, getPercentileMicros(99) / 1e3,
+                    maxNanos / 1e6);
+        }
+    }
+}
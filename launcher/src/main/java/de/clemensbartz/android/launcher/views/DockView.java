@@ -0,0 +1,809 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.views;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.RippleDrawable;
+import android.os.Bundle;
+import android.util.AttributeSet;
+import android.util.StateSet;
+import android.view.ContextMenu;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityManager;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
+import android.widget.Button;
+
+import de.clemensbartz.android.launcher.R;
+
+/**
+ * View for the dock. Draws all application slots and the drawer button in one pass
+ * instead of using one image view per slot.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class DockView extends View {
+
+    /** Slot number reported for the drawer button. */
+    public static final int DRAWER_SLOT = -1;
+
+    /** Marker for no cell. */
+    private static final int NO_CELL = -1;
+    /** Default number of application slots. */
+    private static final int DEFAULT_SLOT_COUNT = 4;
+    /** Default padding around icons in dp. */
+    private static final int DEFAULT_ICON_PADDING = 5;
+
+    /** The number of application slots. */
+    private int slotCount;
+    /** The cell index of the drawer button. */
+    private int drawerPosition;
+    /** The padding around each icon in pixels. */
+    private int iconPadding;
+    /** The icon of the drawer button. */
+    private Drawable drawerIcon;
+    /** The icon for unassigned slots. */
+    private Drawable placeholderIcon;
+
+    /** The icons by slot. */
+    private Drawable[] icons;
+    /** The labels by slot. */
+    private CharSequence[] labels;
+    /** The tags by slot. */
+    private Object[] tags;
+    /** The ripples by cell. */
+    private RippleDrawable[] ripples;
+    /** The bounds by cell. */
+    private Rect[] cellBounds;
+    /** Reusable bounds for drawing icons. */
+    private final Rect iconBounds = new Rect();
+    /** Reusable bounds for restoring the bounds of icons after drawing. */
+    private final Rect savedBounds = new Rect();
+    /** Reusable location for screen bounds. */
+    private final int[] location = new int[2];
+
+    /** The cell that has last been touched or acted upon. */
+    private int activeCell = NO_CELL;
+    /** The cell that is currently hovered in touch exploration mode. */
+    private int hoveredCell = NO_CELL;
+    /** The cell that has accessibility focus. */
+    private int accessibilityFocusedCell = NO_CELL;
+    /** The cell that has keyboard focus while the view is focused. */
+    private int focusedCell = NO_CELL;
+
+    /** The listener for slot clicks. */
+    private OnSlotClickListener onSlotClickListener;
+    /** The accessibility node provider for the cells. */
+    private AccessibilityNodeProvider accessibilityNodeProvider;
+
+    /**
+     * Create a new dock view.
+     * @param context the context
+     */
+    public DockView(final Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Create a new dock view.
+     * @param context the context
+     * @param attrs the attributes
+     */
+    public DockView(final Context context, final AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    /**
+     * Create a new dock view.
+     * @param context the context
+     * @param attrs the attributes
+     * @param defStyleAttr the default style attribute
+     */
+    public DockView(final Context context, final AttributeSet attrs, final int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.DockView, defStyleAttr, 0);
+        try {
+            slotCount = a.getInt(R.styleable.DockView_slotCount, DEFAULT_SLOT_COUNT);
+            drawerPosition = a.getInt(R.styleable.DockView_drawerPosition, slotCount / 2);
+            iconPadding = a.getDimensionPixelSize(R.styleable.DockView_iconPadding,
+                    Math.round(DEFAULT_ICON_PADDING * getResources().getDisplayMetrics().density));
+            drawerIcon = a.getDrawable(R.styleable.DockView_drawerIcon);
+            placeholderIcon = a.getDrawable(R.styleable.DockView_placeholderIcon);
+        } finally {
+            a.recycle();
+        }
+
+        setClickable(true);
+        setLongClickable(true);
+        setFocusable(true);
+        setImportantForAccessibility(IMPORTANT_FOR_ACCESSIBILITY_YES);
+
+        createCells();
+    }
+
+    /**
+     * Create the per slot and per cell arrays for the current slot count.
+     */
+    private void createCells() {
+        final int cellCount = slotCount + 1;
+
+        icons = new Drawable[slotCount];
+        labels = new CharSequence[slotCount];
+        tags = new Object[slotCount];
+
+        if (ripples != null) {
+            for (RippleDrawable ripple : ripples) {
+                ripple.setCallback(null);
+            }
+        }
+
+        ripples = new RippleDrawable[cellCount];
+        cellBounds = new Rect[cellCount];
+
+        for (int i = 0; i < cellCount; i++) {
+            ripples[i] = new RippleDrawable(ColorStateList.valueOf(Color.GRAY), null, null);
+            ripples[i].setCallback(this);
+            cellBounds[i] = new Rect();
+        }
+
+        activeCell = NO_CELL;
+        hoveredCell = NO_CELL;
+        accessibilityFocusedCell = NO_CELL;
+        focusedCell = NO_CELL;
+    }
+
+    /**
+     * Set the number of application slots. All slots will be cleared.
+     * @param slotCount the number of slots
+     */
+    public void setSlotCount(final int slotCount) {
+        if (slotCount < 0 || slotCount == this.slotCount) {
+            return;
+        }
+
+        this.slotCount = slotCount;
+        drawerPosition = Math.min(drawerPosition, slotCount);
+
+        createCells();
+        layoutCells();
+        invalidate();
+        notifyAccessibilityContentChanged();
+    }
+
+    /**
+     *
+     * @return the number of application slots
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Assign an application to a slot.
+     * @param slot the slot
+     * @param icon the icon, or <code>null</code> for the placeholder
+     * @param label the label
+     * @param tag the tag to identify the application
+     */
+    public void setSlot(final int slot, final Drawable icon, final CharSequence label, final Object tag) {
+        if (slot < 0 || slot >= slotCount) {
+            return;
+        }
+
+        icons[slot] = icon;
+        labels[slot] = label;
+        tags[slot] = tag;
+
+        invalidate(cellBounds[cellOf(slot)]);
+        notifyAccessibilityContentChanged();
+    }
+
+    /**
+     * Reset a slot to unassigned.
+     * @param slot the slot
+     */
+    public void clearSlot(final int slot) {
+        setSlot(slot, null, null, null);
+    }
+
+    /**
+     *
+     * @param slot the slot
+     * @return the tag of the slot, or <code>null</code> if unassigned
+     */
+    public Object getSlotTag(final int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            return null;
+        }
+
+        return tags[slot];
+    }
+
+    /**
+     * Set the listener for clicks on slots and the drawer button.
+     * @param onSlotClickListener the listener
+     */
+    public void setOnSlotClickListener(final OnSlotClickListener onSlotClickListener) {
+        this.onSlotClickListener = onSlotClickListener;
+    }
+
+    @Override
+    protected void onLayout(final boolean changed, final int left, final int top, final int right, final int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+
+        // Not in onRtlPropertiesChanged: it runs while the padding is resolved, and reading it there recurses.
+        layoutCells();
+    }
+
+    @Override
+    public void onRtlPropertiesChanged(final int layoutDirection) {
+        super.onRtlPropertiesChanged(layoutDirection);
+
+        requestLayout();
+    }
+
+    /**
+     * Calculate the bounds of all cells.
+     */
+    private void layoutCells() {
+        final int cellCount = cellBounds.length;
+        final int left = getPaddingLeft();
+        final int top = getPaddingTop();
+        final int bottom = getHeight() - getPaddingBottom();
+        final int width = getWidth() - left - getPaddingRight();
+        final boolean rtl = getLayoutDirection() == LAYOUT_DIRECTION_RTL;
+
+        for (int i = 0; i < cellCount; i++) {
+            final int position = rtl ? cellCount - 1 - i : i;
+            final int cellLeft = left + width * position / cellCount;
+            final int cellRight = left + width * (position + 1) / cellCount;
+
+            cellBounds[i].set(cellLeft, top, cellRight, bottom);
+            ripples[i].setBounds(cellBounds[i]);
+        }
+    }
+
+    @Override
+    protected void onDraw(final Canvas canvas) {
+        super.onDraw(canvas);
+
+        for (int i = 0; i < cellBounds.length; i++) {
+            ripples[i].draw(canvas);
+
+            final Drawable icon = iconOf(i);
+            if (icon != null) {
+                // Icons are shared with the drawer, so leave their bounds as they were.
+                computeIconBounds(icon, cellBounds[i]);
+                icon.copyBounds(savedBounds);
+                icon.setBounds(iconBounds);
+                icon.draw(canvas);
+                icon.setBounds(savedBounds);
+            }
+        }
+    }
+
+    /**
+     * Fit the icon into the cell keeping its aspect ratio.
+     * @param icon the icon
+     * @param cell the bounds of the cell
+     */
+    private void computeIconBounds(final Drawable icon, final Rect cell) {
+        final int availableWidth = Math.max(0, cell.width() - 2 * iconPadding);
+        final int availableHeight = Math.max(0, cell.height() - 2 * iconPadding);
+        final int intrinsicWidth = icon.getIntrinsicWidth();
+        final int intrinsicHeight = icon.getIntrinsicHeight();
+
+        int width = availableWidth;
+        int height = availableHeight;
+
+        if (intrinsicWidth > 0 && intrinsicHeight > 0) {
+            if (availableWidth * intrinsicHeight > availableHeight * intrinsicWidth) {
+                width = availableHeight * intrinsicWidth / intrinsicHeight;
+            } else {
+                height = availableWidth * intrinsicHeight / intrinsicWidth;
+            }
+        }
+
+        final int left = cell.centerX() - width / 2;
+        final int top = cell.centerY() - height / 2;
+
+        iconBounds.set(left, top, left + width, top + height);
+    }
+
+    @Override
+    public boolean onTouchEvent(final MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            setActiveCell(cellAt(event.getX(), event.getY()));
+        }
+
+        return super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onFocusChanged(final boolean gainFocus, final int direction, final Rect previouslyFocusedRect) {
+        if (gainFocus) {
+            focusedCell = initialFocusedCell(direction, previouslyFocusedRect);
+        }
+
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+    }
+
+    @Override
+    public boolean onKeyDown(final int keyCode, final KeyEvent event) {
+        final boolean rtl = getLayoutDirection() == LAYOUT_DIRECTION_RTL;
+
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DPAD_LEFT:
+                if (moveFocusedCell(rtl ? 1 : -1)) {
+                    return true;
+                }
+                break;
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+                if (moveFocusedCell(rtl ? -1 : 1)) {
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+
+        return super.onKeyDown(keyCode, event);
+    }
+
+    @Override
+    public boolean performClick() {
+        super.performClick();
+
+        final int cell = getTargetCell();
+        if (cell != NO_CELL) {
+            dispatchCellClick(cell);
+        }
+
+        return true;
+    }
+
+    @Override
+    protected ContextMenu.ContextMenuInfo getContextMenuInfo() {
+        final int cell = getTargetCell();
+        if (cell == NO_CELL) {
+            return null;
+        }
+
+        return new DockContextMenuInfo(slotOf(cell));
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+
+        final int[] state = getDrawableState();
+        final int cell = getTargetCell();
+        for (int i = 0; i < ripples.length; i++) {
+            ripples[i].setState(i == cell ? state : StateSet.NOTHING);
+        }
+    }
+
+    @Override
+    public void drawableHotspotChanged(final float x, final float y) {
+        super.drawableHotspotChanged(x, y);
+
+        final int cell = getTargetCell();
+        if (cell != NO_CELL) {
+            ripples[cell].setHotspot(x, y);
+        }
+    }
+
+    @Override
+    public void jumpDrawablesToCurrentState() {
+        super.jumpDrawablesToCurrentState();
+
+        for (RippleDrawable ripple : ripples) {
+            ripple.jumpToCurrentState();
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(final Drawable who) {
+        if (super.verifyDrawable(who)) {
+            return true;
+        }
+
+        for (RippleDrawable ripple : ripples) {
+            if (ripple == who) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(final MotionEvent event) {
+        final AccessibilityManager am = (AccessibilityManager) getContext().getSystemService(Context.ACCESSIBILITY_SERVICE);
+
+        if (am == null || !am.isEnabled() || !am.isTouchExplorationEnabled()) {
+            return super.dispatchHoverEvent(event);
+        }
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_HOVER_ENTER:
+            case MotionEvent.ACTION_HOVER_MOVE:
+                updateHoveredCell(cellAt(event.getX(), event.getY()));
+                return true;
+            case MotionEvent.ACTION_HOVER_EXIT:
+                updateHoveredCell(NO_CELL);
+                return true;
+            default:
+                return super.dispatchHoverEvent(event);
+        }
+    }
+
+    @Override
+    public AccessibilityNodeProvider getAccessibilityNodeProvider() {
+        if (accessibilityNodeProvider == null) {
+            accessibilityNodeProvider = new DockAccessibilityNodeProvider();
+        }
+
+        return accessibilityNodeProvider;
+    }
+
+    /**
+     * Get the cell that clicks, long clicks and the drawable state apply to: the focused
+     * cell while the view has keyboard focus, the last touched one otherwise.
+     * @return the cell or {@link #NO_CELL}
+     */
+    private int getTargetCell() {
+        return isFocused() && focusedCell != NO_CELL ? focusedCell : activeCell;
+    }
+
+    /**
+     * Choose the cell to focus when the view gains focus.
+     * @param direction the direction focus moved in
+     * @param previouslyFocusedRect the bounds of the previously focused view in this view, can be <code>null</code>
+     * @return the cell
+     */
+    private int initialFocusedCell(final int direction, final Rect previouslyFocusedRect) {
+        if (previouslyFocusedRect != null) {
+            int nearestCell = 0;
+            for (int i = 1; i < cellBounds.length; i++) {
+                if (Math.abs(cellBounds[i].centerX() - previouslyFocusedRect.centerX())
+                        < Math.abs(cellBounds[nearestCell].centerX() - previouslyFocusedRect.centerX())) {
+                    nearestCell = i;
+                }
+            }
+            return nearestCell;
+        }
+
+        if (focusedCell != NO_CELL) {
+            return focusedCell;
+        }
+
+        // Enter from the side focus comes from
+        final boolean fromEnd = direction == FOCUS_LEFT || direction == FOCUS_BACKWARD;
+        final boolean rtl = getLayoutDirection() == LAYOUT_DIRECTION_RTL;
+        return fromEnd != rtl ? cellBounds.length - 1 : 0;
+    }
+
+    /**
+     * Move keyboard focus to a neighbouring cell.
+     * @param delta the change of the cell index
+     * @return <code>true</code>, if focus moved, <code>false</code> if it should leave the view
+     */
+    private boolean moveFocusedCell(final int delta) {
+        final int cell = focusedCell + delta;
+        if (focusedCell == NO_CELL || cell < 0 || cell >= cellBounds.length) {
+            return false;
+        }
+
+        ripples[focusedCell].setState(StateSet.NOTHING);
+        focusedCell = cell;
+        ripples[focusedCell].setState(getDrawableState());
+
+        sendEventForCell(focusedCell, AccessibilityEvent.TYPE_VIEW_FOCUSED);
+        return true;
+    }
+
+    /**
+     * Set the active cell and move pressed state to its ripple.
+     * @param cell the cell
+     */
+    private void setActiveCell(final int cell) {
+        if (activeCell != cell) {
+            if (activeCell != NO_CELL) {
+                ripples[activeCell].setState(StateSet.NOTHING);
+            }
+            activeCell = cell;
+        }
+    }
+
+    /**
+     * Update the hovered cell and send hover events for touch exploration.
+     * @param cell the cell now hovered
+     */
+    private void updateHoveredCell(final int cell) {
+        if (hoveredCell == cell) {
+            return;
+        }
+
+        final int previous = hoveredCell;
+        hoveredCell = cell;
+
+        if (cell != NO_CELL) {
+            sendEventForCell(cell, AccessibilityEvent.TYPE_VIEW_HOVER_ENTER);
+        }
+        if (previous != NO_CELL) {
+            sendEventForCell(previous, AccessibilityEvent.TYPE_VIEW_HOVER_EXIT);
+        }
+    }
+
+    /**
+     * Notify the listener and accessibility services of a click on a cell.
+     * @param cell the cell
+     */
+    private void dispatchCellClick(final int cell) {
+        if (onSlotClickListener != null) {
+            onSlotClickListener.onSlotClick(this, slotOf(cell));
+        }
+
+        sendEventForCell(cell, AccessibilityEvent.TYPE_VIEW_CLICKED);
+    }
+
+    /**
+     * Send an accessibility event on behalf of a cell.
+     * @param cell the cell
+     * @param eventType the type of event
+     */
+    private void sendEventForCell(final int cell, final int eventType) {
+        final AccessibilityManager am = (AccessibilityManager) getContext().getSystemService(Context.ACCESSIBILITY_SERVICE);
+        final ViewParent parent = getParent();
+
+        if (am == null || !am.isEnabled() || parent == null) {
+            return;
+        }
+
+        final AccessibilityEvent event = AccessibilityEvent.obtain(eventType);
+        event.setPackageName(getContext().getPackageName());
+        event.setClassName(Button.class.getName());
+        event.setContentDescription(descriptionOf(cell));
+        event.setEnabled(isEnabled());
+        event.setSource(this, cell);
+
+        parent.requestSendAccessibilityEvent(this, event);
+    }
+
+    /**
+     * Tell accessibility services that the cells have changed.
+     */
+    private void notifyAccessibilityContentChanged() {
+        final AccessibilityManager am = (AccessibilityManager) getContext().getSystemService(Context.ACCESSIBILITY_SERVICE);
+
+        if (am != null && am.isEnabled()) {
+            sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+        }
+    }
+
+    /**
+     * Find the cell at a position.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the cell or {@link #NO_CELL}
+     */
+    private int cellAt(final float x, final float y) {
+        for (int i = 0; i < cellBounds.length; i++) {
+            if (cellBounds[i].contains((int) x, (int) y)) {
+                return i;
+            }
+        }
+
+        return NO_CELL;
+    }
+
+    /**
+     * @param slot the slot
+     * @return the cell of a slot
+     */
+    private int cellOf(final int slot) {
+        if (slot == DRAWER_SLOT) {
+            return drawerPosition;
+        }
+
+        return slot < drawerPosition ? slot : slot + 1;
+    }
+
+    /**
+     * @param cell the cell
+     * @return the slot of a cell or {@link #DRAWER_SLOT}
+     */
+    private int slotOf(final int cell) {
+        if (cell == drawerPosition) {
+            return DRAWER_SLOT;
+        }
+
+        return cell < drawerPosition ? cell : cell - 1;
+    }
+
+    /**
+     * @param cell the cell
+     * @return the icon to draw in a cell
+     */
+    private Drawable iconOf(final int cell) {
+        final int slot = slotOf(cell);
+
+        if (slot == DRAWER_SLOT) {
+            return drawerIcon;
+        }
+
+        return icons[slot] != null ? icons[slot] : placeholderIcon;
+    }
+
+    /**
+     * @param cell the cell
+     * @return the content description of a cell
+     */
+    private CharSequence descriptionOf(final int cell) {
+        final int slot = slotOf(cell);
+
+        if (slot == DRAWER_SLOT) {
+            return getResources().getText(R.string.open_drawer);
+        }
+
+        return labels[slot] != null ? labels[slot] : getResources().getText(R.string.unassigned_dock);
+    }
+
+    /**
+     * Listener for clicks on the dock.
+     */
+    public interface OnSlotClickListener {
+        /**
+         * Called when a slot or the drawer button has been clicked.
+         * @param dockView the dock view
+         * @param slot the slot, or {@link #DRAWER_SLOT}
+         */
+        void onSlotClick(DockView dockView, int slot);
+    }
+
+    /**
+     * Context menu info for the dock carrying the long pressed slot.
+     */
+    public static final class DockContextMenuInfo implements ContextMenu.ContextMenuInfo {
+        /** The slot. */
+        private final int slot;
+
+        /**
+         * Create a new context menu info for a slot.
+         * @param slot the slot, or {@link #DRAWER_SLOT}
+         */
+        DockContextMenuInfo(final int slot) {
+            this.slot = slot;
+        }
+
+        /**
+         *
+         * @return the slot, or {@link #DRAWER_SLOT}
+         */
+        public int getSlot() {
+            return slot;
+        }
+    }
+
+    /**
+     * Provides one virtual accessibility node per cell.
+     */
+    private final class DockAccessibilityNodeProvider extends AccessibilityNodeProvider {
+
+        @Override
+        public AccessibilityNodeInfo createAccessibilityNodeInfo(final int virtualViewId) {
+            if (virtualViewId == HOST_VIEW_ID) {
+                final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(DockView.this);
+                onInitializeAccessibilityNodeInfo(info);
+
+                for (int i = 0; i < cellBounds.length; i++) {
+                    info.addChild(DockView.this, i);
+                }
+
+                return info;
+            }
+
+            if (virtualViewId < 0 || virtualViewId >= cellBounds.length) {
+                return null;
+            }
+
+            final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+            final Rect bounds = cellBounds[virtualViewId];
+
+            info.setSource(DockView.this, virtualViewId);
+            info.setParent(DockView.this);
+            info.setPackageName(getContext().getPackageName());
+            info.setClassName(Button.class.getName());
+            info.setContentDescription(descriptionOf(virtualViewId));
+            info.setBoundsInParent(bounds);
+
+            getLocationOnScreen(location);
+            final Rect screenBounds = new Rect(bounds);
+            screenBounds.offset(location[0], location[1]);
+            info.setBoundsInScreen(screenBounds);
+
+            info.setEnabled(isEnabled());
+            info.setVisibleToUser(isShown());
+            info.setClickable(true);
+            info.setLongClickable(true);
+            info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_CLICK);
+            info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_LONG_CLICK);
+
+            if (accessibilityFocusedCell == virtualViewId) {
+                info.setAccessibilityFocused(true);
+                info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_CLEAR_ACCESSIBILITY_FOCUS);
+            } else {
+                info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_ACCESSIBILITY_FOCUS);
+            }
+
+            return info;
+        }
+
+        @Override
+        public boolean performAction(final int virtualViewId, final int action, final Bundle arguments) {
+            if (virtualViewId == HOST_VIEW_ID) {
+                return performAccessibilityAction(action, arguments);
+            }
+
+            if (virtualViewId < 0 || virtualViewId >= cellBounds.length) {
+                return false;
+            }
+
+            switch (action) {
+                case AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS:
+                    if (accessibilityFocusedCell == virtualViewId) {
+                        return false;
+                    }
+                    accessibilityFocusedCell = virtualViewId;
+                    invalidate();
+                    sendEventForCell(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+                    return true;
+                case AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS:
+                    if (accessibilityFocusedCell != virtualViewId) {
+                        return false;
+                    }
+                    accessibilityFocusedCell = NO_CELL;
+                    invalidate();
+                    sendEventForCell(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+                    return true;
+                case AccessibilityNodeInfo.ACTION_CLICK:
+                    setActiveCell(virtualViewId);
+                    dispatchCellClick(virtualViewId);
+                    return true;
+                case AccessibilityNodeInfo.ACTION_LONG_CLICK:
+                    setActiveCell(virtualViewId);
+                    return performLongClick();
+                default:
+                    return false;
+            }
+        }
+    }
+}
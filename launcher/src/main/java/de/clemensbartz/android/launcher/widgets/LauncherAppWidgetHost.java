@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.widgets;
+
+import android.appwidget.AppWidgetHost;
+import android.appwidget.AppWidgetHostView;
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.Context;
+
+import java.util.Locale;
+
+import de.clemensbartz.android.launcher.util.Metrics;
+
+/**
+ * Widget host creating {@link LauncherAppWidgetHostView}s. The host should only listen
+ * while the home screen is visible; starting to listen again delivers the latest views
+ * of every widget once. Updates arriving while a widget is covered are counted and
+ * deferred by its view.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class LauncherAppWidgetHost extends AppWidgetHost {
+
+    /** Flag, if the host is listening. */
+    private boolean listening = false;
+
+    /** Number of times the host started listening. */
+    private int listenCount;
+    /** Number of views received. */
+    private int receivedCount;
+    /** Number of views received while the widget was hidden. */
+    private int hiddenCount;
+    /** Number of deferred views replaced by newer ones before being applied. */
+    private int coalescedCount;
+    /** Number of views applied. */
+    private int appliedCount;
+
+    /**
+     * Create a new host.
+     * @param context the context
+     * @param hostId the id of the host
+     */
+    public LauncherAppWidgetHost(final Context context, final int hostId) {
+        super(context, hostId);
+    }
+
+    @Override
+    public void startListening() {
+        if (!listening) {
+            super.startListening();
+            listening = true;
+            listenCount++;
+        }
+    }
+
+    @Override
+    public void stopListening() {
+        if (listening) {
+            super.stopListening();
+            listening = false;
+        }
+    }
+
+    /**
+     *
+     * @return <code>true</code>, if the host is listening
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    @Override
+    protected AppWidgetHostView onCreateView(
+            final Context context,
+            final int appWidgetId,
+            final AppWidgetProviderInfo appWidget) {
+
+        return new LauncherAppWidgetHostView(context, this);
+    }
+
+    /**
+     * Count views received by a host view.
+     * @param hidden <code>true</code>, if the widget was hidden
+     * @param coalesced <code>true</code>, if deferred views have been replaced
+     */
+    void onReceived(final boolean hidden, final boolean coalesced) {
+        receivedCount++;
+        if (hidden) {
+            hiddenCount++;
+        }
+        if (coalesced) {
+            coalescedCount++;
+        }
+    }
+
+    /**
+     * Count views applied by a host view.
+     */
+    void onApplied() {
+        appliedCount++;
+    }
+
+    /**
+     *
+     * @return the number of times the host started listening
+     */
+    public int getListenCount() {
+        return listenCount;
+    }
+
+    /**
+     *
+     * @return the number of views received
+     */
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     *
+     * @return the number of views received while the widget was hidden
+     */
+    public int getHiddenCount() {
+        return hiddenCount;
+    }
+
+    /**
+     *
+     * @return the number of deferred views replaced by newer ones
+     */
+    public int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     *
+     * @return the number of views applied
+     */
+    public int getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     * Register the gauges of this host with the metrics.
+     * @param owner the owner of the gauges, which removes them when it goes
+     */
+    public void registerGauges(final Object owner) {
+        final Metrics metrics = Metrics.getInstance();
+        metrics.setGauge(owner, "widgets.listens", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return listenCount;
+            }
+        });
+
+        metrics.setGauge(owner, "widgets.received", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return receivedCount;
+            }
+        });
+
+        metrics.setGauge(owner, "widgets.hidden", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return hiddenCount;
+            }
+        });
+
+        metrics.setGauge(owner, "widgets.coalesced", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return coalescedCount;
+            }
+        });
+
+        metrics.setGauge(owner, "widgets.applied", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return appliedCount;
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "LauncherAppWidgetHost{listening=%b, listens=%d, received=%d, hidden=%d, coalesced=%d, applied=%d}",
+                listening, listenCount, receivedCount, hiddenCount, coalescedCount, appliedCount);
+    }
+}
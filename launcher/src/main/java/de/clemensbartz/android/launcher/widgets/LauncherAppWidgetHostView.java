@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.widgets;
+
+import android.appwidget.AppWidgetHostView;
+import android.content.Context;
+import android.widget.RemoteViews;
+
+/**
+ * Widget host view that reports when the provider has delivered its first views.
+ * While the widget is hidden, views are deferred and only the latest ones are applied
+ * once it is shown again.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class LauncherAppWidgetHostView extends AppWidgetHostView {
+
+    /** The host of this view. */
+    private final LauncherAppWidgetHost host;
+    /** Number of views of the provider applied. */
+    private int updateCount;
+    /** Flag, if the widget is hidden and updates are deferred. */
+    private boolean hidden = false;
+    /** The latest deferred views, <code>null</code> if there are none. */
+    private RemoteViews pendingViews;
+    /** The listener for the first views, <code>null</code> after it has been called. */
+    private OnFirstUpdateListener onFirstUpdateListener;
+
+    /**
+     * Create a new view.
+     * @param context the context
+     * @param host the host of this view
+     */
+    LauncherAppWidgetHostView(final Context context, final LauncherAppWidgetHost host) {
+        super(context);
+        this.host = host;
+    }
+
+    @Override
+    public void updateAppWidget(final RemoteViews remoteViews) {
+        // No views means the provider has not delivered anything yet.
+        if (remoteViews == null) {
+            super.updateAppWidget(null);
+            return;
+        }
+
+        // The first views are always applied, they replace the loading view.
+        if (hidden && updateCount > 0) {
+            host.onReceived(true, pendingViews != null);
+            pendingViews = remoteViews;
+            return;
+        }
+
+        host.onReceived(hidden, false);
+        apply(remoteViews);
+    }
+
+    /**
+     * Hide or show the widget. Views delivered while hidden are applied when it is shown.
+     * @param hidden <code>true</code>, if the widget is hidden
+     */
+    public void setHidden(final boolean hidden) {
+        this.hidden = hidden;
+
+        if (!hidden && pendingViews != null) {
+            final RemoteViews remoteViews = pendingViews;
+            pendingViews = null;
+            apply(remoteViews);
+        }
+    }
+
+    /**
+     * Apply views of the provider.
+     * @param remoteViews the views
+     */
+    private void apply(final RemoteViews remoteViews) {
+        super.updateAppWidget(remoteViews);
+        host.onApplied();
+
+        updateCount++;
+
+        if (onFirstUpdateListener != null) {
+            final OnFirstUpdateListener listener = onFirstUpdateListener;
+            onFirstUpdateListener = null;
+            listener.onFirstUpdate(this);
+        }
+    }
+
+    /**
+     * Set the listener for the first views of the provider. It is not called if the
+     * views have already been delivered.
+     * @param listener the listener, can be <code>null</code>
+     */
+    public void setOnFirstUpdateListener(final OnFirstUpdateListener listener) {
+        onFirstUpdateListener = updateCount == 0 ? listener : null;
+    }
+
+    /**
+     *
+     * @return <code>true</code>, if the provider has delivered views
+     */
+    public boolean hasUpdate() {
+        return updateCount > 0;
+    }
+
+    /**
+     *
+     * @return the number of views delivered by the provider
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Listener for the first views of the provider.
+     */
+    public interface OnFirstUpdateListener {
+        /**
+         * Called when the provider has delivered its first views.
+         * @param view the view
+         */
+        void onFirstUpdate(LauncherAppWidgetHostView view);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.widgets;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Snapshot of the rendered widget, shown on a cold start until the widget provider
+ * delivers its views. The file holds the widget id and the snapshot as PNG.
+ *
+ * @author Clemens Bartz
+ * @since 1.5
+ */
+public final class WidgetSnapshot {
+
+    /** The version of the file format. */
+    private static final int VERSION = 1;
+    /** The PNG quality, ignored by the lossless format. */
+    private static final int PNG_QUALITY = 100;
+
+    /**
+     * Hidden constructor.
+     */
+    private WidgetSnapshot() {
+        // Hidden constructor
+    }
+
+    /**
+     * Read a snapshot. This has to be called from an async task.
+     * @param file the file
+     * @param appWidgetId the id of the widget
+     * @return the snapshot, or <code>null</code>, if there is none for the widget
+     */
+    public static Bitmap read(final File file, final int appWidgetId) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new AtomicFile(file).openRead()))) {
+            if (in.readInt() != VERSION || in.readInt() != appWidgetId) {
+                return null;
+            }
+
+            return BitmapFactory.decodeStream(in);
+        } catch (final IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a snapshot. This has to be called from an async task.
+     * @param file the file
+     * @param appWidgetId the id of the widget
+     * @param snapshot the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final File file, final int appWidgetId, final Bitmap snapshot) throws IOException {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        final FileOutputStream stream = atomicFile.startWrite();
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            out.writeInt(appWidgetId);
+            snapshot.compress(Bitmap.CompressFormat.PNG, PNG_QUALITY, out);
+            out.flush();
+
+            atomicFile.finishWrite(stream);
+        } catch (final IOException | RuntimeException e) {
+            atomicFile.failWrite(stream);
+            throw e;
+        }
+    }
+}
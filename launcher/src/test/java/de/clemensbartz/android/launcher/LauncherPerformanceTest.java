@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
+import android.widget.GridView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowApplicationPackageManager;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowPackageManager;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import de.clemensbartz.android.launcher.db.ApplicationUsageDbHelper;
+import de.clemensbartz.android.launcher.models.HomeModel;
+import de.clemensbartz.android.launcher.views.DockView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Performance regression test for the load, launch and refresh cycle with a synthetic
+ * catalog of launcher activities. The budgets on queries and package manager calls do
+ * not grow with the catalog, so per-application lookups fail the test.
+ * <p/>
+ * Launches also have budgets on allocations and wall time. Both are the median over
+ * the launches after a warm-up, so that class loading, the JIT and single slow runs
+ * do not count.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 27, shadows = {
+        LauncherPerformanceTest.CountingPackageManager.class,
+        LauncherPerformanceTest.CountingSQLiteDatabase.class
+})
+public class LauncherPerformanceTest {
+
+    /** Number of launches per run. */
+    private static final int LAUNCHES = 50;
+    /** Number of launches before the measured ones. */
+    private static final int WARM_UP_LAUNCHES = 20;
+    /** Maximum number of rounds for running pending tasks. */
+    private static final int MAX_DRAIN_ROUNDS = 1000;
+
+    /** Budget of queries for loading, independent of the catalog. */
+    private static final int LOAD_QUERY_BUDGET = 3;
+    /** Budget of activity scans for loading. */
+    private static final int LOAD_SCAN_BUDGET = 1;
+    /** Budget of writes per launch: update or insert the usage row. */
+    private static final int LAUNCH_WRITE_BUDGET = 2;
+    /** Budget of activity scans for a refresh after a package change. */
+    private static final int REFRESH_SCAN_BUDGET = 1;
+    /** Budget of activity scans for the deferred work after loading: the garbage collection. */
+    private static final int IDLE_SCAN_BUDGET = 1;
+    /** Budget of allocated bytes for a launch, including the test harness. */
+    private static final long LAUNCH_ALLOCATION_BUDGET = 1024 * 1024;
+    /** Budget of wall time for a launch in milliseconds. */
+    private static final long LAUNCH_TIME_BUDGET = 50;
+
+    /** The number of synthetic applications. */
+    private final int size;
+
+    /**
+     * @return the sizes of the catalog
+     */
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} apps")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{{250}, {1000}, {2500}});
+    }
+
+    /**
+     * Create a new test.
+     * @param size the number of synthetic applications
+     */
+    public LauncherPerformanceTest(final int size) {
+        this.size = size;
+    }
+
+    @Before
+    public void setUp() {
+        // The model and the database helper live as long as the process, i. e. the test run.
+        ReflectionHelpers.setStaticField(HomeModel.class, "instance", null);
+        ReflectionHelpers.setStaticField(ApplicationUsageDbHelper.class, "instance", null);
+
+        CountingPackageManager.reset();
+        CountingSQLiteDatabase.reset();
+
+        install(size);
+    }
+
+    @After
+    public void tearDown() {
+        ReflectionHelpers.setStaticField(HomeModel.class, "instance", null);
+        ReflectionHelpers.setStaticField(ApplicationUsageDbHelper.class, "instance", null);
+    }
+
+    @Test
+    public void testLoadLaunchRefresh() {
+        // Load
+        final ActivityController<Launcher> controller = Robolectric.buildActivity(Launcher.class)
+                .create().start().resume().visible();
+        final Launcher launcher = controller.get();
+        drain(false);
+
+        final HomeModel model = HomeModel.getExistingInstance();
+        assertNotNull(model);
+        assertEquals(size, model.getCatalog().getApplications().size());
+
+        assertBudget("queries for loading", LOAD_QUERY_BUDGET, CountingSQLiteDatabase.queryCount);
+        assertBudget("writes for loading", 0, CountingSQLiteDatabase.writeCount);
+        assertBudget("activity scans for loading", LOAD_SCAN_BUDGET, CountingPackageManager.queryIntentActivitiesCount);
+        assertBudget("activity lookups for loading", model.getNumberOfApps(), CountingPackageManager.getActivityInfoCount);
+
+        // Deferred work: the legacy scheduler of Robolectric never runs idle handlers by itself.
+        CountingPackageManager.reset();
+        CountingSQLiteDatabase.reset();
+
+        assertNull(launcher.findViewById(R.id.lvApplications));
+        assertTrue(model.isGarbageCollectionDue());
+        drain(true);
+        assertNotNull("Drawer not inflated when idle", launcher.findViewById(R.id.lvApplications));
+        assertFalse("Garbage not collected when idle", model.isGarbageCollectionDue());
+
+        assertBudget("queries for deferred work", 0, CountingSQLiteDatabase.queryCount);
+        assertBudget("writes for deferred work", 0, CountingSQLiteDatabase.writeCount);
+        assertBudget("activity scans for deferred work", IDLE_SCAN_BUDGET, CountingPackageManager.queryIntentActivitiesCount);
+
+        // Launch
+        openDrawer(launcher);
+        final GridView grid = launcher.findViewById(R.id.lvApplications);
+        assertNotNull(grid);
+        assertEquals(size, grid.getCount());
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final long[] allocations = new long[LAUNCHES];
+        final long[] durations = new long[LAUNCHES];
+        final Random random = new Random(size);
+        for (int i = 0; i < WARM_UP_LAUNCHES + LAUNCHES; i++) {
+            CountingPackageManager.reset();
+            CountingSQLiteDatabase.reset();
+
+            final int position = random.nextInt(size);
+            final long allocationStart = getAllocatedBytes(threadBean);
+            final long timeStart = System.nanoTime();
+            grid.performItemClick(null, position, position);
+            drain(true);
+
+            if (i >= WARM_UP_LAUNCHES) {
+                durations[i - WARM_UP_LAUNCHES] = (System.nanoTime() - timeStart) / 1000000;
+                allocations[i - WARM_UP_LAUNCHES] = getAllocatedBytes(threadBean) - allocationStart;
+            }
+
+            assertBudget("queries for a launch", 0, CountingSQLiteDatabase.queryCount);
+            assertBudget("writes for a launch", LAUNCH_WRITE_BUDGET, CountingSQLiteDatabase.writeCount);
+            assertBudget("activity scans for a launch", 0, CountingPackageManager.queryIntentActivitiesCount);
+            assertBudget("activity lookups for a launch", 0, CountingPackageManager.getActivityInfoCount);
+        }
+
+        assertTrue(model.getMostUsedApplications().size() > 0);
+        assertBudget("ms for a launch (median)", LAUNCH_TIME_BUDGET, median(durations));
+        if (getAllocatedBytes(threadBean) >= 0) {
+            assertBudget("bytes allocated for a launch (median)", LAUNCH_ALLOCATION_BUDGET, median(allocations));
+        }
+
+        // Refresh after a package change
+        CountingPackageManager.reset();
+        CountingSQLiteDatabase.reset();
+
+        launcher.sendBroadcast(new Intent(Intent.ACTION_PACKAGE_CHANGED, Uri.parse("package:com.example.app0")));
+        drain(true);
+
+        assertEquals(size, model.getCatalog().getApplications().size());
+        assertBudget("queries for a refresh", 0, CountingSQLiteDatabase.queryCount);
+        assertBudget("writes for a refresh", 0, CountingSQLiteDatabase.writeCount);
+        assertBudget("activity scans for a refresh", REFRESH_SCAN_BUDGET, CountingPackageManager.queryIntentActivitiesCount);
+        assertBudget("activity lookups for a refresh", model.getNumberOfApps(), CountingPackageManager.getActivityInfoCount);
+
+        controller.pause().stop().destroy();
+    }
+
+    /**
+     * Install synthetic launcher activities, three per package.
+     * @param count the number of activities
+     */
+    private static void install(final int count) {
+        final ShadowPackageManager shadowPackageManager = Shadows.shadowOf(RuntimeEnvironment.application.getPackageManager());
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+
+        PackageInfo packageInfo = null;
+        for (int i = 0; i < count; i++) {
+            final String packageName = "com.example.app" + (i / 3);
+
+            if (packageInfo == null || !packageName.equals(packageInfo.packageName)) {
+                if (packageInfo != null) {
+                    shadowPackageManager.addPackage(packageInfo);
+                }
+
+                packageInfo = new PackageInfo();
+                packageInfo.packageName = packageName;
+                packageInfo.applicationInfo = new ApplicationInfo();
+                packageInfo.applicationInfo.packageName = packageName;
+                packageInfo.applicationInfo.sourceDir = "/data/app/" + packageName + "/base.apk";
+                packageInfo.activities = new ActivityInfo[0];
+            }
+
+            final ActivityInfo activityInfo = new ActivityInfo();
+            activityInfo.packageName = packageName;
+            activityInfo.name = packageName + ".Activity" + (i % 3);
+            activityInfo.applicationInfo = packageInfo.applicationInfo;
+            activityInfo.enabled = true;
+            activityInfo.nonLocalizedLabel = "App " + Integer.toString(i, Character.MAX_RADIX);
+
+            packageInfo.activities = Arrays.copyOf(packageInfo.activities, packageInfo.activities.length + 1);
+            packageInfo.activities[packageInfo.activities.length - 1] = activityInfo;
+
+            final ResolveInfo resolveInfo = new ResolveInfo();
+            resolveInfo.activityInfo = activityInfo;
+            resolveInfo.nonLocalizedLabel = activityInfo.nonLocalizedLabel;
+            shadowPackageManager.addResolveInfoForIntent(intent, resolveInfo);
+        }
+
+        if (packageInfo != null) {
+            shadowPackageManager.addPackage(packageInfo);
+        }
+    }
+
+    /**
+     * Open the drawer through the drawer cell of the dock.
+     * @param launcher the launcher
+     */
+    private static void openDrawer(final Launcher launcher) {
+        final DockView dockView = launcher.findViewById(R.id.dock);
+        final AccessibilityNodeProvider provider = dockView.getAccessibilityNodeProvider();
+        final String openDrawer = launcher.getString(R.string.open_drawer);
+
+        for (int cell = 0; cell <= dockView.getSlotCount(); cell++) {
+            final AccessibilityNodeInfo info = provider.createAccessibilityNodeInfo(cell);
+            if (openDrawer.equals(String.valueOf(info.getContentDescription()))) {
+                provider.performAction(cell, AccessibilityNodeInfo.ACTION_CLICK, null);
+                drain(true);
+                return;
+            }
+        }
+
+        fail("The dock has no drawer cell");
+    }
+
+    /**
+     * Run background tasks and main thread tasks, including frames, until none are left.
+     * @param idle if the idle handlers of the main looper should run whenever the tasks are done
+     */
+    private static void drain(final boolean idle) {
+        for (int i = 0; i < MAX_DRAIN_ROUNDS; i++) {
+            if (Robolectric.getBackgroundThreadScheduler().size() == 0
+                    && Robolectric.getForegroundThreadScheduler().size() == 0
+                    && !(idle && runIdleHandlers())) {
+                return;
+            }
+
+            Robolectric.flushBackgroundThreadScheduler();
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+
+        fail("Tasks did not settle");
+    }
+
+    /**
+     * Run the idle handlers of the main looper once, like the looper does when its queue
+     * runs empty. Handlers returning <code>false</code> are removed.
+     * @return <code>true</code>, if there have been idle handlers
+     */
+    private static boolean runIdleHandlers() {
+        final MessageQueue queue = Looper.getMainLooper().getQueue();
+        final List<MessageQueue.IdleHandler> registered = ReflectionHelpers.getField(queue, "mIdleHandlers");
+        final List<MessageQueue.IdleHandler> idleHandlers;
+        synchronized (queue) {
+            idleHandlers = new ArrayList<>(registered);
+        }
+
+        for (MessageQueue.IdleHandler idleHandler : idleHandlers) {
+            if (!idleHandler.queueIdle()) {
+                queue.removeIdleHandler(idleHandler);
+            }
+        }
+
+        return !idleHandlers.isEmpty();
+    }
+
+    /**
+     * @param threadBean the bean for threads
+     * @return the bytes allocated by the current thread, or -1 if the virtual machine does not count them
+     */
+    private static long getAllocatedBytes(final ThreadMXBean threadBean) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param values the values, which get sorted
+     * @return the median of the values
+     */
+    private static long median(final long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    /**
+     * Assert that a value is within its budget.
+     * @param name the name of the value
+     * @param budget the budget
+     * @param actual the value
+     */
+    private void assertBudget(final String name, final long budget, final long actual) {
+        assertTrue(String.format("%d %s with %d apps, budget is %d", actual, name, size, budget), actual <= budget);
+    }
+
+    /**
+     * Package manager counting scans and lookups of activities.
+     */
+    @Implements(className = "android.app.ApplicationPackageManager", isInAndroidSdk = false, looseSignatures = true)
+    public static class CountingPackageManager extends ShadowApplicationPackageManager {
+        /** Number of activity scans. */
+        private static int queryIntentActivitiesCount;
+        /** Number of activity lookups. */
+        private static int getActivityInfoCount;
+
+        /**
+         * Reset the counters.
+         */
+        static void reset() {
+            queryIntentActivitiesCount = 0;
+            getActivityInfoCount = 0;
+        }
+
+        @Implementation
+        public List<ResolveInfo> queryIntentActivities(final Intent intent, final int flags) {
+            queryIntentActivitiesCount++;
+            return super.queryIntentActivities(intent, flags);
+        }
+
+        @Implementation
+        public ActivityInfo getActivityInfo(final ComponentName component, final int flags)
+                throws PackageManager.NameNotFoundException {
+            getActivityInfoCount++;
+            return super.getActivityInfo(component, flags);
+        }
+    }
+
+    /**
+     * Database counting queries and writes.
+     */
+    @Implements(SQLiteDatabase.class)
+    public static class CountingSQLiteDatabase {
+        /** Number of queries. */
+        private static int queryCount;
+        /** Number of inserts, updates and deletes. */
+        private static int writeCount;
+
+        /** The database. */
+        @RealObject
+        private SQLiteDatabase realObject;
+
+        /**
+         * Reset the counters.
+         */
+        static void reset() {
+            queryCount = 0;
+            writeCount = 0;
+        }
+
+        @Implementation
+        public Cursor rawQueryWithFactory(final SQLiteDatabase.CursorFactory cursorFactory,
+                                          final String sql,
+                                          final String[] selectionArgs,
+                                          final String editTable,
+                                          final CancellationSignal cancellationSignal) {
+            queryCount++;
+            return Shadow.directlyOn(realObject, SQLiteDatabase.class, "rawQueryWithFactory",
+                    ClassParameter.from(SQLiteDatabase.CursorFactory.class, cursorFactory),
+                    ClassParameter.from(String.class, sql),
+                    ClassParameter.from(String[].class, selectionArgs),
+                    ClassParameter.from(String.class, editTable),
+                    ClassParameter.from(CancellationSignal.class, cancellationSignal));
+        }
+
+        @Implementation
+        public long insertWithOnConflict(final String table,
+                                         final String nullColumnHack,
+                                         final ContentValues initialValues,
+                                         final int conflictAlgorithm) {
+            writeCount++;
+            return Shadow.directlyOn(realObject, SQLiteDatabase.class, "insertWithOnConflict",
+                    ClassParameter.from(String.class, table),
+                    ClassParameter.from(String.class, nullColumnHack),
+                    ClassParameter.from(ContentValues.class, initialValues),
+                    ClassParameter.from(int.class, conflictAlgorithm));
+        }
+
+        @Implementation
+        public int updateWithOnConflict(final String table,
+                                        final ContentValues values,
+                                        final String whereClause,
+                                        final String[] whereArgs,
+                                        final int conflictAlgorithm) {
+            writeCount++;
+            return Shadow.directlyOn(realObject, SQLiteDatabase.class, "updateWithOnConflict",
+                    ClassParameter.from(String.class, table),
+                    ClassParameter.from(ContentValues.class, values),
+                    ClassParameter.from(String.class, whereClause),
+                    ClassParameter.from(String[].class, whereArgs),
+                    ClassParameter.from(int.class, conflictAlgorithm));
+        }
+
+        @Implementation
+        public int delete(final String table, final String whereClause, final String[] whereArgs) {
+            writeCount++;
+            return Shadow.directlyOn(realObject, SQLiteDatabase.class, "delete",
+                    ClassParameter.from(String.class, table),
+                    ClassParameter.from(String.class, whereClause),
+                    ClassParameter.from(String[].class, whereArgs));
+        }
+    }
+}
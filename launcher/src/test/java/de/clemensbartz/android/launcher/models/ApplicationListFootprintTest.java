@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018  Clemens Bartz
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.clemensbartz.android.launcher.models;
+
+import android.content.ComponentName;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the size of {@link ApplicationList} with the layout it replaced, an
+ * {@link ArrayList} of {@link ApplicationModel} plus a map keyed by {@link ComponentName}.
+ * Both are built from the same synthetic scan of 1,000 applications with three
+ * activities per package.
+ * <p/>
+ * Sizes are computed from the object graph with a fixed 32 bit layout instead of
+ * measured on the heap, so that they do not depend on the virtual machine, the
+ * garbage collector or the order of the tests.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ApplicationListFootprintTest {
+
+    /** The number of applications in a catalog. */
+    private static final int SIZE = 1000;
+    /** The number of launcher activities per package. */
+    private static final int ACTIVITIES_PER_PACKAGE = 3;
+    /** The factor by which the compact layout must be smaller. */
+    private static final double MIN_FACTOR = 1.3;
+    /** The tolerance of the estimate of the list against its object graph. */
+    private static final double ESTIMATE_TOLERANCE = 0.1;
+
+    /** Bytes of an object header. */
+    private static final int OBJECT_HEADER = 8;
+    /** Bytes of an array header, including the length. */
+    private static final int ARRAY_HEADER = 12;
+    /** Bytes of a reference. */
+    private static final int REFERENCE_SIZE = 4;
+    /** Alignment of objects in bytes. */
+    private static final int ALIGNMENT = 8;
+    /** Bytes of a string without its characters, as estimated by the list. */
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * The old layout: the scanned models in drawer order and a map for lookups by component.
+     */
+    private static final class ModelCatalog {
+        /** The models in drawer order. */
+        private final List<ApplicationModel> applicationModels;
+        /** The models by component. */
+        private final Map<ComponentName, ApplicationModel> byComponent;
+
+        /**
+         * Create a new catalog.
+         * @param applicationModels the models in drawer order
+         */
+        private ModelCatalog(final List<ApplicationModel> applicationModels) {
+            this.applicationModels = applicationModels;
+            byComponent = new HashMap<>(applicationModels.size());
+            for (final ApplicationModel applicationModel : applicationModels) {
+                byComponent.put(new ComponentName(applicationModel.packageName, applicationModel.className), applicationModel);
+            }
+        }
+    }
+
+    @Test
+    public void compactListIsSmallerThanModelsAndMap() {
+        final long modelBytes = sizeOf(new ModelCatalog(scan()));
+        final long compactBytes = sizeOf(ApplicationList.of(scan()));
+
+        assertTrue(String.format("compact list %d bytes, models and map %d bytes", compactBytes, modelBytes),
+                compactBytes * MIN_FACTOR <= modelBytes);
+    }
+
+    @Test
+    public void estimateMatchesObjectGraph() {
+        final ApplicationList applicationList = ApplicationList.of(scan());
+        final long compactBytes = sizeOf(applicationList);
+        final long estimatedBytes = applicationList.estimateBytes();
+
+        assertTrue(String.format("estimated %d bytes, object graph %d bytes", estimatedBytes, compactBytes),
+                Math.abs(estimatedBytes - compactBytes) <= compactBytes * ESTIMATE_TOLERANCE);
+    }
+
+    @Test
+    public void compactListKeepsEveryComponent() {
+        final List<ApplicationModel> scan = scan();
+        final ApplicationList applicationList = ApplicationList.of(scan);
+
+        assertEquals(SIZE, applicationList.size());
+        for (int i = 0; i < SIZE; i++) {
+            final ApplicationModel applicationModel = scan.get(i);
+            assertEquals(i, applicationList.indexOf(applicationModel.packageName, applicationModel.className));
+        }
+    }
+
+    /**
+     * Compute the size of everything reachable from an object. Objects reached more than
+     * once are counted once. Strings are counted like the list estimates them.
+     * @param root the object
+     * @return the size in bytes
+     */
+    private static long sizeOf(final Object root) {
+        final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        final Deque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        long bytes = 0;
+        while (!pending.isEmpty()) {
+            final Object object = pending.pop();
+            if (!visited.add(object)) {
+                continue;
+            }
+
+            final Class<?> type = object.getClass();
+            if (object instanceof String) {
+                bytes += STRING_OVERHEAD + 2L * ((String) object).length();
+            } else if (type.isArray()) {
+                final int length = Array.getLength(object);
+                final Class<?> componentType = type.getComponentType();
+                bytes += align(ARRAY_HEADER + (long) length * sizeOfField(componentType));
+                if (!componentType.isPrimitive()) {
+                    for (int i = 0; i < length; i++) {
+                        push(pending, Array.get(object, i));
+                    }
+                }
+            } else {
+                long objectBytes = OBJECT_HEADER;
+                for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    for (final Field field : c.getDeclaredFields()) {
+                        // Skip the fields Robolectric adds to framework classes
+                        if (Modifier.isStatic(field.getModifiers()) || field.getName().startsWith("__robo")) {
+                            continue;
+                        }
+
+                        objectBytes += sizeOfField(field.getType());
+                        if (!field.getType().isPrimitive()) {
+                            field.setAccessible(true);
+                            try {
+                                push(pending, field.get(object));
+                            } catch (final IllegalAccessException e) {
+                                throw new AssertionError(e);
+                            }
+                        }
+                    }
+                }
+                bytes += align(objectBytes);
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Queue an object for {@link #sizeOf(Object)}.
+     * @param pending the queue
+     * @param object the object, can be <code>null</code>
+     */
+    private static void push(final Deque<Object> pending, final Object object) {
+        if (object != null) {
+            pending.push(object);
+        }
+    }
+
+    /**
+     * @param type the type of a field or an array element
+     * @return its size in bytes
+     */
+    private static int sizeOfField(final Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    /**
+     * @param bytes the size of an object
+     * @return the size aligned to {@link #ALIGNMENT}
+     */
+    private static long align(final long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Create a synthetic scan with fresh strings, as the package manager returns them.
+     * @return the models in drawer order
+     */
+    private static List<ApplicationModel> scan() {
+        final List<ApplicationModel> applicationModels = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            final ApplicationModel applicationModel = new ApplicationModel();
+            applicationModel.packageName = "com.example.app" + (i / ACTIVITIES_PER_PACKAGE);
+            applicationModel.className = applicationModel.packageName + ".Activity" + (i % ACTIVITIES_PER_PACKAGE);
+            applicationModel.label = "App " + i;
+            applicationModel.sticky = i % 7 == 0;
+            applicationModels.add(applicationModel);
+        }
+        return applicationModels;
+    }
+}